@@ -0,0 +1,88 @@
+package cn.info.verify;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 把表按主键切分成若干区间
+ * 边界按主键索引逐段取得：从上一个边界之后跳过chunkRows行取下一个主键，
+ * 每条查询只沿主键索引走一个区间的长度，不会有一条语句扫描整个主键、持有整张表的快照；
+ * 整数、字符串、联合主键都适用，不要求主键连续，也不需要数据库之外的排序规则
+ */
+public final class ChunkPlanner {
+
+    public static final long DEFAULT_CHUNK_ROWS = 100_000;
+
+    private static final String NEXT_BOUNDARY = """
+        SELECT %s FROM %s WHERE %s ORDER BY %s LIMIT 1 OFFSET %d
+    """;
+
+    private ChunkPlanner() {
+    }
+
+    /**
+     * @param table 表名，可以带库名（db.table）
+     * @param pkColumns 主键列，为空时无法切分，返回整张表
+     * @param chunkRows 每个区间的目标行数
+     */
+    public static List<KeyRange> plan(Connection conn, String table, List<String> pkColumns, long chunkRows) throws SQLException {
+        if (pkColumns.isEmpty() || chunkRows <= 0) {
+            return List.of(KeyRange.ALL);
+        }
+        long rows = SpanSizing.estimateRows(conn, table);
+        int chunks = (int) Math.min(Integer.MAX_VALUE, (rows + chunkRows - 1) / chunkRows);
+        if (chunks <= 1) {
+            return List.of(KeyRange.ALL);
+        }
+
+        // 行数只是估计值，一直取到表尾；每个区间[上一个边界, 下一个边界)正好chunkRows行
+        List<Object[]> boundaries = new ArrayList<>(chunks);
+        Object[] boundary = nextBoundary(conn, table, pkColumns, null, chunkRows);
+        while (boundary != null) {
+            boundaries.add(boundary);
+            boundary = nextBoundary(conn, table, pkColumns, boundary, chunkRows - 1);
+        }
+        return fromBoundaries(boundaries);
+    }
+
+    /**
+     * 由升序排列的边界生成首尾相接的区间
+     */
+    public static List<KeyRange> fromBoundaries(List<Object[]> boundaries) {
+        List<KeyRange> ranges = new ArrayList<>(boundaries.size() + 1);
+        Object[] lower = null;
+        for (Object[] boundary : boundaries) {
+            ranges.add(new KeyRange(lower, boundary));
+            lower = boundary;
+        }
+        ranges.add(new KeyRange(lower, null));
+        return ranges;
+    }
+
+    /**
+     * after之后（不包含）跳过skip行的主键，已经到表尾时返回null
+     * @param after 上一个边界，null时从表头开始
+     */
+    private static Object[] nextBoundary(Connection conn, String table, List<String> pkColumns, Object[] after,
+                                         long skip) throws SQLException {
+        String pkStr = String.join(",", pkColumns);
+        String sql = String.format(NEXT_BOUNDARY, pkStr, table, KeyRange.ALL.condition(pkColumns, after), pkStr, skip);
+        try (PreparedStatement statement = conn.prepareStatement(sql)) {
+            KeyRange.ALL.bind(statement, 1, after);
+            try (ResultSet rs = statement.executeQuery()) {
+                if (!rs.next()) {
+                    return null;
+                }
+                Object[] key = new Object[pkColumns.size()];
+                for (int i = 0; i < key.length; i++) {
+                    key[i] = rs.getObject(i + 1);
+                }
+                return key;
+            }
+        }
+    }
+}
@@ -9,19 +9,19 @@ import java.util.Map;
 @Setter
 @Getter
 public class CompareTable {
-    private String compareSign;  // 所有字段的MD5
-    private String pk_hash;  // 主键的MD5
+    private Signature128 compareSign;  // 所有字段的MD5
+    private Signature128 pk_hash;  // 主键的MD5
     private Map<String, Object> pkValues;  // 主键字段值
-    private String span;         // span值
+    private long span;         // span值，pk_hash的前SPAN_KEY_SIZE个十六进制位
 
-    public CompareTable(String compareSign,
-                      Map<String, Object> pkValues, String span) {
+    public CompareTable(Signature128 compareSign,
+                      Map<String, Object> pkValues, long span) {
         this.compareSign = compareSign;
         this.pkValues = pkValues;
         this.span = span;
     }
-    public CompareTable(String compareSign,String pk_hash,
-                        Map<String, Object> pkValues, String span) {
+    public CompareTable(Signature128 compareSign,Signature128 pk_hash,
+                        Map<String, Object> pkValues, long span) {
         this.compareSign = compareSign;
         this.pk_hash = pk_hash;
         this.pkValues = pkValues;
@@ -0,0 +1,49 @@
+package cn.info.verify;
+
+import java.util.concurrent.Semaphore;
+
+/**
+ * 每台服务器同时使用的连接数上限
+ * 校验一张表要同时占用两边各一个连接；两个库在同一台服务器上时，一张表占用该服务器的两个连接
+ */
+public class ConnectionBudget {
+
+    private final Semaphore server1;
+    private final Semaphore server2;
+
+    /**
+     * @param server1Limit 服务器1的连接上限
+     * @param server2Limit 服务器2的连接上限
+     * @param sameServer 两边是同一台服务器时共用server1Limit
+     */
+    public ConnectionBudget(int server1Limit, int server2Limit, boolean sameServer) {
+        this.server1 = new Semaphore(Math.max(server1Limit, sameServer ? 2 : 1), true);
+        this.server2 = sameServer ? null : new Semaphore(Math.max(server2Limit, 1), true);
+    }
+
+    /**
+     * 占用两边各一个连接，总是先服务器1后服务器2，避免互相等待
+     */
+    public void acquire() throws InterruptedException {
+        if (server2 == null) {
+            server1.acquire(2);
+            return;
+        }
+        server1.acquire();
+        try {
+            server2.acquire();
+        } catch (InterruptedException e) {
+            server1.release();
+            throw e;
+        }
+    }
+
+    public void release() {
+        if (server2 == null) {
+            server1.release(2);
+            return;
+        }
+        server2.release();
+        server1.release();
+    }
+}
@@ -0,0 +1,212 @@
+package cn.info.verify;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 差异记录和修复语句的文件输出
+ * 原来差异和修复语句先收集到List或StringBuilder里，差异很大的表光是输出就要几个G的堆内存。
+ * 这里产生一条就写一条：差异记录和修复语句分别写到各自的文件，经过固定大小的缓冲区写入FileChannel，
+ * 文件超过maxFileBytes后换下一个文件（只在记录之间切换，一条记录不会跨文件）。
+ * 内存里只保留条数和文件路径，见Summary。不是线程安全的，每张表的每个方向各用一个
+ */
+public final class DiffSink implements Closeable {
+
+    public static final long DEFAULT_MAX_FILE_BYTES = 256L * 1024 * 1024;
+
+    // 差异记录的类型：两边都有但内容不同、只在源表中、只在目标表中
+    public static final String CHANGED = "CHANGED";
+    public static final String MISSING = "MISSING";
+    public static final String EXTRA = "EXTRA";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final RotatingFile diffs;
+    private final RotatingFile repairs;
+    private final Map<String, Long> changedColumns = new TreeMap<>();
+    private long diffCount;
+    private long repairCount;
+
+    /**
+     * @param directory 输出目录，不存在时创建
+     * @param name 文件名前缀，如库名.表名
+     * @param maxFileBytes 单个文件的大小上限
+     */
+    public DiffSink(Path directory, String name, long maxFileBytes) throws IOException {
+        Files.createDirectories(directory);
+        this.diffs = new RotatingFile(directory, name + ".diff.%04d.txt", maxFileBytes);
+        this.repairs = new RotatingFile(directory, name + ".repair.%04d.sql", maxFileBytes);
+    }
+
+    /**
+     * 写一条差异记录：类型和主键值，以制表符分隔
+     * @param kind CHANGED、MISSING或EXTRA
+     * @param key 主键值，顺序与主键列相同
+     */
+    public void writeDiff(String kind, Object[] key) {
+        writeDiff(kind, key, List.of());
+    }
+
+    /**
+     * 变更行的差异记录，主键值之后再加一列以逗号分隔的变化的列
+     */
+    public void writeDiff(String kind, Object[] key, List<String> columns) {
+        StringBuilder line = new StringBuilder(kind);
+        for (Object value : key) {
+            line.append('\t').append(value);
+        }
+        if (!columns.isEmpty()) {
+            line.append('\t').append(String.join(",", columns));
+            for (String column : columns) {
+                changedColumns.merge(column, 1L, Long::sum);
+            }
+        }
+        diffs.write(line.append('\n').toString());
+        diffCount++;
+    }
+
+    /**
+     * 写一条修复语句，可以直接作为RepairSqlWriter的输出
+     */
+    public void writeRepair(String sql) {
+        repairs.write(sql + "\n");
+        repairCount++;
+    }
+
+    public Summary summary() {
+        return new Summary(diffCount, repairCount, new TreeMap<>(changedColumns), diffs.paths(), repairs.paths());
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            diffs.close();
+        } finally {
+            repairs.close();
+        }
+    }
+
+    /**
+     * 一次输出的结果：条数和写出的文件，没有写任何记录时文件列表为空
+     * @param changedColumns 变更行中每一列不同的行数
+     */
+    public record Summary(long diffRows, long repairStatements, Map<String, Long> changedColumns,
+                          List<Path> diffFiles, List<Path> repairFiles) {
+
+        public boolean isEmpty() {
+            return diffRows == 0 && repairStatements == 0;
+        }
+
+        /**
+         * 报告中的几行说明
+         */
+        public List<String> report() {
+            List<String> lines = new ArrayList<>();
+            lines.add(String.format("# Data differences found among rows: %d", diffRows));
+            if (!changedColumns.isEmpty()) {
+                List<String> columns = new ArrayList<>(changedColumns.size());
+                changedColumns.forEach((column, rows) -> columns.add(column + " (" + rows + ")"));
+                lines.add("# Changed columns: " + String.join(", ", columns));
+            }
+            for (Path file : diffFiles) {
+                lines.add("#   differences: " + file);
+            }
+            if (repairStatements > 0) {
+                lines.add(String.format("# Repair statements: %d", repairStatements));
+            }
+            for (Path file : repairFiles) {
+                lines.add("#   repair SQL: " + file);
+            }
+            return lines;
+        }
+    }
+
+    /**
+     * 按大小切换的输出文件，第一条记录写入时才创建文件
+     */
+    private static final class RotatingFile implements Closeable {
+
+        private final Path directory;
+        private final String pattern;
+        private final long maxFileBytes;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        private final List<Path> paths = new ArrayList<>();
+        private FileChannel channel;
+        private long fileBytes;
+
+        RotatingFile(Path directory, String pattern, long maxFileBytes) {
+            this.directory = directory;
+            this.pattern = pattern;
+            this.maxFileBytes = Math.max(maxFileBytes, BUFFER_SIZE);
+        }
+
+        void write(String record) {
+            byte[] bytes = record.getBytes(StandardCharsets.UTF_8);
+            try {
+                if (channel == null || (fileBytes > 0 && fileBytes + bytes.length > maxFileBytes)) {
+                    rotate();
+                }
+                if (bytes.length > buffer.remaining()) {
+                    flush();
+                }
+                if (bytes.length > buffer.capacity()) {
+                    writeFully(ByteBuffer.wrap(bytes));
+                } else {
+                    buffer.put(bytes);
+                }
+                fileBytes += bytes.length;
+            } catch (IOException e) {
+                throw new UncheckedIOException("写入" + paths.get(paths.size() - 1) + "失败", e);
+            }
+        }
+
+        List<Path> paths() {
+            return List.copyOf(paths);
+        }
+
+        private void rotate() throws IOException {
+            close();
+            Path path = directory.resolve(String.format(pattern, paths.size() + 1));
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            paths.add(path);
+            fileBytes = 0;
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            writeFully(buffer);
+            buffer.clear();
+        }
+
+        private void writeFully(ByteBuffer source) throws IOException {
+            while (source.hasRemaining()) {
+                channel.write(source);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (channel == null) {
+                return;
+            }
+            try {
+                flush();
+            } finally {
+                channel.close();
+                channel = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package cn.info.verify;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * 从心跳表读取延迟，精度取决于主库写入心跳的间隔，比Seconds_Behind_Source准确，
+ * 多级复制时反映的也是相对最上游主库的延迟。
+ * 表结构与pt-heartbeat相同：ts列保存主库写入时的UTC时间。表中没有数据时返回UNKNOWN
+ */
+public class HeartbeatLagProbe implements LagProbe {
+
+    private static final String HEARTBEAT_LAG = """
+        SELECT TIMESTAMPDIFF(MICROSECOND, MAX(ts), UTC_TIMESTAMP(6)) DIV 1000 AS lag_ms FROM %s
+    """;
+
+    private final DataSource replica;
+    private final String sql;
+
+    /**
+     * @param table 心跳表，可以带库名（db.heartbeat）
+     */
+    public HeartbeatLagProbe(DataSource replica, String table) {
+        this.replica = replica;
+        this.sql = String.format(HEARTBEAT_LAG, table);
+    }
+
+    @Override
+    public long lagMillis() throws SQLException {
+        try (Connection conn = replica.getConnection();
+             Statement statement = conn.createStatement();
+             ResultSet rs = statement.executeQuery(sql)) {
+            if (!rs.next()) {
+                return UNKNOWN;
+            }
+            long lag = rs.getLong("lag_ms");
+            // 时钟误差可能得到负数，视为没有延迟
+            return rs.wasNull() ? UNKNOWN : Math.max(lag, 0);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package cn.info.verify;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 主键区间 [lower, upper)，联合主键按行构造器（(a, b) >= (?, ?)）比较
+ * 边界值保留驱动返回的原始类型，绑定参数时交给数据库按列类型和排序规则比较
+ */
+public final class KeyRange {
+
+    /**
+     * 整张表
+     */
+    public static final KeyRange ALL = new KeyRange(null, null);
+
+    private final Object[] lower;   // 包含，null表示没有下界
+    private final Object[] upper;   // 不包含，null表示没有上界
+
+    public KeyRange(Object[] lower, Object[] upper) {
+        this.lower = lower;
+        this.upper = upper;
+    }
+
+    public Object[] getLower() {
+        return lower;
+    }
+
+    public Object[] getUpper() {
+        return upper;
+    }
+
+    /**
+     * 区间条件，没有边界时为1=1
+     */
+    public String condition(List<String> pkColumns) {
+        return condition(pkColumns, lower, ">=");
+    }
+
+    /**
+     * 从after之后（不包含）开始的区间条件，用于键集分页的后续页
+     * @param after 上一页最后一行的主键值，null时等同于condition
+     */
+    public String condition(List<String> pkColumns, Object[] after) {
+        return after == null ? condition(pkColumns) : condition(pkColumns, after, ">");
+    }
+
+    /**
+     * 按condition中占位符的顺序绑定参数
+     * @return 下一个参数的下标
+     */
+    public int bind(PreparedStatement statement, int index, Object[] after) throws SQLException {
+        Object[] from = after == null ? lower : after;
+        if (from != null) {
+            for (Object value : from) {
+                statement.setObject(index++, value);
+            }
+        }
+        if (upper != null) {
+            for (Object value : upper) {
+                statement.setObject(index++, value);
+            }
+        }
+        return index;
+    }
+
+    private String condition(List<String> pkColumns, Object[] from, String op) {
+        StringBuilder where = new StringBuilder();
+        if (from != null) {
+            where.append(compare(pkColumns, op));
+        }
+        if (upper != null) {
+            if (!where.isEmpty()) {
+                where.append(" AND ");
+            }
+            where.append(compare(pkColumns, "<"));
+        }
+        return where.isEmpty() ? "1=1" : where.toString();
+    }
+
+    private static String compare(List<String> pkColumns, String op) {
+        if (pkColumns.size() == 1) {
+            return pkColumns.get(0) + " " + op + " ?";
+        }
+        String placeholders = String.join(",", Collections.nCopies(pkColumns.size(), "?"));
+        return "(" + String.join(",", pkColumns) + ") " + op + " (" + placeholders + ")";
+    }
+
+    @Override
+    public String toString() {
+        return "[" + (lower == null ? "-inf" : Arrays.toString(lower)) + ", "
+                + (upper == null ? "+inf" : Arrays.toString(upper)) + ")";
+    }
+}
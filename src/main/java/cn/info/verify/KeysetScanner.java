@@ -0,0 +1,163 @@
+package cn.info.verify;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+/**
+ * 按主键区间做键集分页扫描
+ * 每页是一条 WHERE (pk) > (上一页最后的主键) ORDER BY pk LIMIT n 的短查询，
+ * 不会为整张表持有一个长时间的快照；多个区间可以在各自的连接上并行扫描
+ */
+public final class KeysetScanner {
+
+    public static final int DEFAULT_PAGE_SIZE = 10_000;
+
+    private static final String PAGE_QUERY = """
+        SELECT * FROM %s WHERE %s ORDER BY %s LIMIT %d
+    """;
+
+    private static final String RANGE_QUERY = """
+        SELECT * FROM %s WHERE %s
+    """;
+
+    private KeysetScanner() {
+    }
+
+    /**
+     * 处理结果集的当前行
+     */
+    @FunctionalInterface
+    public interface RowHandler {
+        void handle(ResultSet resultSet) throws SQLException;
+    }
+
+    /**
+     * 在一个连接上处理一个区间，返回该区间的结果
+     */
+    @FunctionalInterface
+    public interface RangeTask<T> {
+        T apply(Connection conn, KeyRange range) throws SQLException;
+    }
+
+    /**
+     * 分页扫描一个区间内的所有行
+     * @param table 表名，可以带库名（db.table）
+     * @param pkColumns 主键列，为空时不能分页，只执行一次区间查询
+     */
+    public static void scan(Connection conn, String table, List<String> pkColumns, KeyRange range,
+                            int pageSize, RowHandler handler) throws SQLException {
+        if (pkColumns.isEmpty()) {
+            try (PreparedStatement statement = StreamingReads.prepare(conn,
+                    String.format(RANGE_QUERY, table, range.condition(pkColumns)));) {
+                range.bind(statement, 1, null);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        handler.handle(resultSet);
+                    }
+                }
+            }
+            return;
+        }
+
+        String orderBy = String.join(",", pkColumns);
+        Object[] after = null;
+        int[] pkIndexes = null;
+        while (true) {
+            String sql = String.format(PAGE_QUERY, table, range.condition(pkColumns, after), orderBy, pageSize);
+            int rows = 0;
+            try (PreparedStatement statement = StreamingReads.prepare(conn, sql)) {
+                range.bind(statement, 1, after);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    if (pkIndexes == null) {
+                        pkIndexes = new int[pkColumns.size()];
+                        for (int i = 0; i < pkIndexes.length; i++) {
+                            pkIndexes[i] = resultSet.findColumn(pkColumns.get(i));
+                        }
+                    }
+                    Object[] last = null;
+                    while (resultSet.next()) {
+                        handler.handle(resultSet);
+                        rows++;
+                        // 不满一页时扫描已经结束，只有整页的最后一行需要记录主键
+                        if (rows == pageSize) {
+                            last = new Object[pkIndexes.length];
+                            for (int i = 0; i < pkIndexes.length; i++) {
+                                last[i] = resultSet.getObject(pkIndexes[i]);
+                            }
+                        }
+                    }
+                    after = last;
+                }
+            }
+            if (rows < pageSize) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * 在dataSource的多个连接上并行处理各个区间，每个区间的结果一完成就交给combiner，之后不再持有
+     * combiner只在调用线程上执行，不需要同步；各区间结果交给combiner的顺序不固定
+     * @param parallelism 并行度，小于等于1时在一个连接上依次处理
+     */
+    public static <T> void forEachRange(DataSource dataSource, List<KeyRange> ranges, int parallelism,
+                                        RangeTask<T> task, Consumer<T> combiner) throws SQLException {
+        if (parallelism <= 1 || ranges.size() <= 1) {
+            try (Connection conn = dataSource.getConnection()) {
+                forEachRange(conn, ranges, task, combiner);
+            }
+            return;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, ranges.size()));
+        try {
+            CompletionService<T> completion = new ExecutorCompletionService<>(executor);
+            for (KeyRange range : ranges) {
+                completion.submit(() -> {
+                    try (Connection conn = dataSource.getConnection()) {
+                        return task.apply(conn, range);
+                    }
+                });
+            }
+            for (int i = 0; i < ranges.size(); i++) {
+                combiner.accept(await(completion));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * 在同一个连接上依次处理各个区间，每个区间的结果处理完就交给combiner
+     */
+    public static <T> void forEachRange(Connection conn, List<KeyRange> ranges, RangeTask<T> task,
+                                        Consumer<T> combiner) throws SQLException {
+        for (KeyRange range : ranges) {
+            combiner.accept(task.apply(conn, range));
+        }
+    }
+
+    private static <T> T await(CompletionService<T> completion) throws SQLException {
+        try {
+            return completion.take().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("区间扫描被中断", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof SQLException sqlException) {
+                throw sqlException;
+            }
+            throw new SQLException("区间扫描失败", e.getCause());
+        }
+    }
+}
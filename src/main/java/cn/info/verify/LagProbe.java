@@ -0,0 +1,60 @@
+package cn.info.verify;
+
+import javax.sql.DataSource;
+import java.sql.SQLException;
+
+/**
+ * 从库复制延迟的探测
+ * 直接修复时RepairThrottle在每批提交后调用，根据延迟调整批大小或暂停。
+ * 实现必须是线程安全的，多个写入连接共用同一个实例
+ */
+public interface LagProbe {
+
+    String NONE = "none";
+    String REPLICA = "replica";
+    String HEARTBEAT = "heartbeat";
+
+    /**
+     * 无法得到延迟时的返回值，如复制线程没有运行
+     */
+    long UNKNOWN = -1;
+
+    /**
+     * 当前的复制延迟（毫秒），无法得到时返回UNKNOWN
+     */
+    long lagMillis() throws SQLException;
+
+    /**
+     * 从库SHOW REPLICA STATUS中的Seconds_Behind_Source，精度为秒
+     * @param replica 从库
+     */
+    static LagProbe replicaStatus(DataSource replica) {
+        return new ReplicaStatusLagProbe(replica);
+    }
+
+    /**
+     * 心跳表（如pt-heartbeat）：主库定期写入当前时间，从库上最新的时间与当前时间之差就是延迟
+     * @param replica 从库
+     * @param table 心跳表，ts列为UTC时间
+     */
+    static LagProbe heartbeat(DataSource replica, String table) {
+        return new HeartbeatLagProbe(replica, table);
+    }
+
+    /**
+     * 根据名称选择探测方式，NONE时返回null
+     * @param heartbeatTable 只用于HEARTBEAT
+     */
+    static LagProbe forName(String name, DataSource replica, String heartbeatTable) {
+        if (name == null || name.isEmpty() || NONE.equalsIgnoreCase(name)) {
+            return null;
+        }
+        if (REPLICA.equalsIgnoreCase(name)) {
+            return replicaStatus(replica);
+        }
+        if (HEARTBEAT.equalsIgnoreCase(name)) {
+            return heartbeat(replica, heartbeatTable);
+        }
+        throw new IllegalArgumentException("不支持的延迟探测方式: " + name);
+    }
+}
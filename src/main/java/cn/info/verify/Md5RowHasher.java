@@ -0,0 +1,36 @@
+package cn.info.verify;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * MD5行哈希，与服务端的MD5()结果一致，是默认的兼容实现
+ */
+public class Md5RowHasher implements RowHasher {
+
+    // ThreadLocal 缓存 MessageDigest 实例
+    private static final ThreadLocal<MessageDigest> MD5_DIGEST = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("MD5算法不可用", e);
+        }
+    });
+
+    @Override
+    public String name() {
+        return MD5;
+    }
+
+    @Override
+    public Signature128 hash(byte[] input, int offset, int length) {
+        MessageDigest md = MD5_DIGEST.get();
+        md.update(input, offset, length);
+        return Signature128.of(md.digest());
+    }
+
+    @Override
+    public String sqlFunction() {
+        return "MD5";
+    }
+}
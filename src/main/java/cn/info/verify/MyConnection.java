@@ -3,15 +3,32 @@ package cn.info.verify;
 import lombok.Getter;
 import lombok.Setter;
 
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 一台服务器的连接配置，同时也是该服务器连接池的配置，通过PooledDataSource使用
+ */
 @Getter
 @Setter
 public class MyConnection {
+    private static final String URL = "jdbc:mysql://%s:%s/%s";
+
     private String host;
     private String port;
     private String username;
     private String password;
     private String database;
 
+    // 连接池配置
+    private int maxPoolSize = 8;                    // 最多同时打开的连接数
+    private int minIdle = 2;                        // 创建连接池时预先建立的连接数
+    private int validationTimeout = 5;              // 校验连接是否可用的超时时间（秒）
+    private long validationInterval = 30_000;       // 空闲超过这个时间（毫秒）的连接借出前先校验
+    private long borrowTimeout = 60_000;            // 连接都被占用时等待的最长时间（毫秒）
+    private boolean cursorFetch;                    // 大结果集使用服务端游标分批读取，默认逐行流式读取，见StreamingReads
+    private boolean rewriteBatchedStatements;       // 驱动把批量的INSERT合并成多行语句，直接修复时使用，见RepairApplier
+
     public MyConnection(String host, String port, String username, String password, String database) {
         this.host = host;
         this.port = port;
@@ -21,4 +38,63 @@ public class MyConnection {
     }
 
      public MyConnection(){}
+
+    /**
+     * 复制连接和连接池配置，用于同一台服务器上另建一个配置不同的连接池
+     */
+    public MyConnection copy() {
+        MyConnection copy = new MyConnection(host, port, username, password, database);
+        copy.setMaxPoolSize(maxPoolSize);
+        copy.setMinIdle(minIdle);
+        copy.setValidationTimeout(validationTimeout);
+        copy.setValidationInterval(validationInterval);
+        copy.setBorrowTimeout(borrowTimeout);
+        copy.setCursorFetch(cursorFetch);
+        copy.setRewriteBatchedStatements(rewriteBatchedStatements);
+        return copy;
+    }
+
+    /**
+     * 解析mysqldbcompare格式的服务器参数：user[:password]@host[:port]
+     */
+    public static MyConnection parse(String serverVal) {
+        String user = "root";
+        String password = null;
+        String address = serverVal;
+        int at = serverVal.lastIndexOf('@');
+        if (at >= 0) {
+            String login = serverVal.substring(0, at);
+            address = serverVal.substring(at + 1);
+            int colon = login.indexOf(':');
+            user = colon >= 0 ? login.substring(0, colon) : login;
+            password = colon >= 0 ? login.substring(colon + 1) : null;
+        }
+        String host = address;
+        String port = "3306";
+        int colon = address.lastIndexOf(':');
+        if (colon >= 0) {
+            host = address.substring(0, colon);
+            port = address.substring(colon + 1);
+        }
+        return new MyConnection(host, port, user, password, null);
+    }
+
+    public String getUrl() {
+        String url = String.format(URL, host, port, database == null ? "" : database);
+        List<String> properties = new ArrayList<>();
+        if (cursorFetch) {
+            properties.add("useCursorFetch=true");
+        }
+        if (rewriteBatchedStatements) {
+            properties.add("rewriteBatchedStatements=true");
+        }
+        return properties.isEmpty() ? url : url + "?" + String.join("&", properties);
+    }
+
+    /**
+     * 服务器地址（host:port），用于判断两个配置是否指向同一台服务器
+     */
+    public String getServer() {
+        return host + ":" + port;
+    }
 }
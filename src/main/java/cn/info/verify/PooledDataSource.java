@@ -0,0 +1,280 @@
+package cn.info.verify;
+
+import javax.sql.DataSource;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * 按MyConnection配置建立的连接池
+ * 原来每次比较库或表都通过DriverManager新建连接，并行校验时会在瞬间打开大量连接。
+ * 这里创建时预先建立minIdle个连接，同时打开的连接不超过maxPoolSize，
+ * 空闲较久的连接借出前先校验，close时归还到池中而不是断开。
+ * forDatabase返回共用同一个池、借出时切换默认库的DataSource，同一台服务器上的多个库只需要一个池。
+ * 改过会话状态（sql_log_bin、临时表）的连接先调用markSessionChanged，归还时直接断开，不会带给下一个借用者
+ */
+public class PooledDataSource implements DataSource, AutoCloseable {
+
+    private final Pool pool;
+    private final String catalog;   // 借出时切换到的默认库，null表示使用配置中的库
+
+    public PooledDataSource(MyConnection config) throws SQLException {
+        this(new Pool(config), null);
+    }
+
+    private PooledDataSource(Pool pool, String catalog) {
+        this.pool = pool;
+        this.catalog = catalog;
+    }
+
+    /**
+     * 共用同一个连接池，借出的连接默认库为database
+     */
+    public PooledDataSource forDatabase(String database) {
+        return new PooledDataSource(pool, database);
+    }
+
+    public MyConnection getConfig() {
+        return pool.config;
+    }
+
+    /**
+     * 标记conn的会话状态已经被修改（如SET sql_log_bin = 0、建了临时表），归还时断开而不是放回池中，
+     * 断开后服务器会丢弃会话变量和临时表。不是从连接池借出的连接不受影响
+     */
+    public static void markSessionChanged(Connection conn) {
+        if (Proxy.isProxyClass(conn.getClass()) && Proxy.getInvocationHandler(conn) instanceof Pool.Lease lease) {
+            lease.sessionChanged = true;
+        }
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        Connection conn = pool.borrow();
+        try {
+            if (catalog != null && !catalog.equals(conn.getCatalog())) {
+                conn.setCatalog(catalog);
+            }
+        } catch (SQLException e) {
+            conn.close();
+            throw e;
+        }
+        return conn;
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        throw new SQLFeatureNotSupportedException("Pooled connections use the configured credentials.");
+    }
+
+    /**
+     * 关闭连接池，断开所有空闲连接；已借出的连接归还时直接断开
+     */
+    @Override
+    public void close() {
+        pool.close();
+    }
+
+    @Override
+    public PrintWriter getLogWriter() {
+        return null;
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out) {
+    }
+
+    @Override
+    public void setLoginTimeout(int seconds) {
+    }
+
+    @Override
+    public int getLoginTimeout() {
+        return 0;
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        if (iface.isInstance(this)) {
+            return iface.cast(this);
+        }
+        throw new SQLException("Not a wrapper for " + iface.getName());
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) {
+        return iface.isInstance(this);
+    }
+
+    /**
+     * 连接池本体，所有forDatabase得到的DataSource共用
+     */
+    private static final class Pool {
+
+        private final MyConnection config;
+        private final Semaphore permits;
+        private final LinkedBlockingDeque<IdleConnection> idle = new LinkedBlockingDeque<>();
+        private volatile boolean closed;
+
+        Pool(MyConnection config) throws SQLException {
+            this.config = config;
+            this.permits = new Semaphore(Math.max(config.getMaxPoolSize(), 1), true);
+            // 预先建立连接
+            for (int i = 0; i < Math.min(config.getMinIdle(), config.getMaxPoolSize()); i++) {
+                idle.addLast(new IdleConnection(open(), System.currentTimeMillis()));
+            }
+        }
+
+        Connection borrow() throws SQLException {
+            if (closed) {
+                throw new SQLException("Connection pool for " + config.getServer() + " is closed.");
+            }
+            try {
+                if (!permits.tryAcquire(config.getBorrowTimeout(), TimeUnit.MILLISECONDS)) {
+                    throw new SQLException(String.format("Timed out after %d ms waiting for a connection to %s (max pool size %d).",
+                            config.getBorrowTimeout(), config.getServer(), config.getMaxPoolSize()));
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted while waiting for a connection.", e);
+            }
+
+            try {
+                IdleConnection entry;
+                while ((entry = idle.pollFirst()) != null) {
+                    if (isUsable(entry)) {
+                        return wrap(entry.conn);
+                    }
+                    closeQuietly(entry.conn);
+                }
+                return wrap(open());
+            } catch (SQLException | RuntimeException e) {
+                permits.release();
+                throw e;
+            }
+        }
+
+        /**
+         * 归还连接：回滚未提交的事务并恢复自动提交，出错、池已关闭或会话状态被修改过时直接断开
+         */
+        void giveBack(Connection conn, boolean sessionChanged) {
+            try {
+                if (closed || sessionChanged || conn.isClosed()) {
+                    closeQuietly(conn);
+                    return;
+                }
+                if (!conn.getAutoCommit()) {
+                    conn.rollback();
+                    conn.setAutoCommit(true);
+                }
+                if (conn.isReadOnly()) {
+                    conn.setReadOnly(false);
+                }
+                idle.addFirst(new IdleConnection(conn, System.currentTimeMillis()));
+            } catch (SQLException e) {
+                closeQuietly(conn);
+            } finally {
+                permits.release();
+            }
+        }
+
+        void close() {
+            closed = true;
+            IdleConnection entry;
+            while ((entry = idle.pollFirst()) != null) {
+                closeQuietly(entry.conn);
+            }
+        }
+
+        private boolean isUsable(IdleConnection entry) {
+            if (System.currentTimeMillis() - entry.returnedAt < config.getValidationInterval()) {
+                return true;
+            }
+            try {
+                return entry.conn.isValid(config.getValidationTimeout());
+            } catch (SQLException e) {
+                return false;
+            }
+        }
+
+        private Connection open() throws SQLException {
+            return DriverManager.getConnection(config.getUrl(), config.getUsername(), config.getPassword());
+        }
+
+        /**
+         * 借出的连接是一个代理，close时归还到池中
+         */
+        private Connection wrap(Connection conn) {
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                    new Class<?>[]{Connection.class}, new Lease(conn));
+        }
+
+        /**
+         * 一次借出
+         */
+        private final class Lease implements InvocationHandler {
+
+            private final Connection conn;
+            private boolean released;
+            private volatile boolean sessionChanged;
+
+            Lease(Connection conn) {
+                this.conn = conn;
+            }
+
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                switch (method.getName()) {
+                    case "close":
+                        if (!released) {
+                            released = true;
+                            giveBack(conn, sessionChanged);
+                        }
+                        return null;
+                    case "isClosed":
+                        return released || conn.isClosed();
+                    case "equals":
+                        return proxy == args[0];
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    case "toString":
+                        return "Pooled" + conn;
+                    default:
+                        if (released) {
+                            throw new SQLException("Connection has been returned to the pool.");
+                        }
+                        try {
+                            return method.invoke(conn, args);
+                        } catch (InvocationTargetException e) {
+                            throw e.getCause();
+                        }
+                }
+            }
+        }
+
+        private static void closeQuietly(Connection conn) {
+            try {
+                conn.close();
+            } catch (SQLException ignored) {
+            }
+        }
+    }
+
+    private record IdleConnection(Connection conn, long returnedAt) {
+    }
+}
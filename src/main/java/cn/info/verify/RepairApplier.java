@@ -0,0 +1,336 @@
+package cn.info.verify;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * 直接在容灾库上执行修复
+ * 修复语句原来只打印出来，需要人工重放。这里用预编译语句批量执行：
+ * 多余的行按主键DELETE，变更行按主键只UPDATE不同的列（变化的列相同的行共用一条语句），
+ * 缺少的行INSERT ... ON DUPLICATE KEY UPDATE；
+ * 连接开启rewriteBatchedStatements（MyConnection.setRewriteBatchedStatements）时驱动会把一批INSERT合并成多行语句。
+ * 每commitRows行提交一次，出错时只回滚当前这一批。
+ * 有连接池时按主键哈希把行分给writers个连接并行执行，同一主键的修改总在同一个连接上。
+ * 设置了throttle时每批的行数由它按从库延迟决定，每批提交后检查一次延迟。
+ * 设置了disableBinlog时连接池借出的写入连接先关闭会话的binlog，与toggle_binlog关闭比较连接的binlog一致
+ */
+public class RepairApplier {
+
+    public static final int DEFAULT_COMMIT_ROWS = 1000;
+
+    private final String table;
+    private final List<String> pkColumns;
+    private int writers = 1;
+    private int commitRows = DEFAULT_COMMIT_ROWS;
+    private RepairThrottle throttle;
+    private boolean disableBinlog;
+
+    /**
+     * @param table 目标表
+     * @param pkColumns 主键列
+     */
+    public RepairApplier(String table, List<String> pkColumns) {
+        this.table = table;
+        this.pkColumns = pkColumns;
+    }
+
+    public int getWriters() {
+        return writers;
+    }
+
+    public void setWriters(int writers) {
+        this.writers = Math.max(writers, 1);
+    }
+
+    public int getCommitRows() {
+        return commitRows;
+    }
+
+    public void setCommitRows(int commitRows) {
+        this.commitRows = Math.max(commitRows, 1);
+    }
+
+    public RepairThrottle getThrottle() {
+        return throttle;
+    }
+
+    public boolean isDisableBinlog() {
+        return disableBinlog;
+    }
+
+    /**
+     * @param disableBinlog 为true时从连接池借出的连接执行SET sql_log_bin = 0，修复不写binlog、不复制到从库；
+     *                      在调用方传入的连接上执行时不受影响
+     */
+    public void setDisableBinlog(boolean disableBinlog) {
+        this.disableBinlog = disableBinlog;
+    }
+
+    /**
+     * @param throttle 为null时固定每commitRows行提交一次
+     */
+    public void setThrottle(RepairThrottle throttle) {
+        this.throttle = throttle;
+    }
+
+    /**
+     * 在dataSource的多个连接上并行执行
+     * @param updates 需要更新的变更行和不同的列
+     * @param upserts 需要写入的源表行，列名到值
+     * @param deleteKeys 需要删除的行的主键值，顺序与pkColumns相同
+     * @return 执行的行数
+     */
+    public long apply(DataSource dataSource, List<RowDiff> updates, List<Map<String, Object>> upserts,
+                      List<Object[]> deleteKeys) throws SQLException {
+        if (writers <= 1 || updates.size() + upserts.size() + deleteKeys.size() <= commitRows) {
+            try (Connection conn = borrow(dataSource)) {
+                return apply(conn, updates, upserts, deleteKeys);
+            }
+        }
+
+        // 按主键哈希分区
+        List<List<RowDiff>> updateParts = new ArrayList<>(writers);
+        List<List<Map<String, Object>>> upsertParts = new ArrayList<>(writers);
+        List<List<Object[]>> deleteParts = new ArrayList<>(writers);
+        for (int i = 0; i < writers; i++) {
+            updateParts.add(new ArrayList<>());
+            upsertParts.add(new ArrayList<>());
+            deleteParts.add(new ArrayList<>());
+        }
+        for (RowDiff diff : updates) {
+            updateParts.get(partition(keyOf(diff.source()))).add(diff);
+        }
+        for (Map<String, Object> row : upserts) {
+            upsertParts.get(partition(keyOf(row))).add(row);
+        }
+        for (Object[] key : deleteKeys) {
+            deleteParts.get(partition(key)).add(key);
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(writers);
+        try {
+            List<Future<Long>> futures = new ArrayList<>(writers);
+            for (int i = 0; i < writers; i++) {
+                List<RowDiff> updatePart = updateParts.get(i);
+                List<Map<String, Object>> upsertPart = upsertParts.get(i);
+                List<Object[]> deletePart = deleteParts.get(i);
+                futures.add(executor.submit(() -> {
+                    try (Connection conn = borrow(dataSource)) {
+                        return apply(conn, updatePart, upsertPart, deletePart);
+                    }
+                }));
+            }
+            long rows = 0;
+            SQLException failure = null;
+            for (Future<Long> future : futures) {
+                try {
+                    rows += await(future);
+                } catch (SQLException e) {
+                    if (failure == null) {
+                        failure = e;
+                    } else {
+                        failure.addSuppressed(e);
+                    }
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            return rows;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * 从连接池借出写入连接，需要时关闭会话的binlog（连接归还时断开，见PooledDataSource.markSessionChanged）
+     */
+    private Connection borrow(DataSource dataSource) throws SQLException {
+        Connection conn = dataSource.getConnection();
+        if (disableBinlog) {
+            try {
+                dbCompareUtils.disableBinlog(conn);
+            } catch (SQLException e) {
+                conn.close();
+                throw e;
+            }
+        }
+        return conn;
+    }
+
+    /**
+     * 在一个连接上依次执行，结束后恢复连接原来的自动提交设置
+     */
+    public long apply(Connection conn, List<RowDiff> updates, List<Map<String, Object>> upserts,
+                      List<Object[]> deleteKeys) throws SQLException {
+        boolean autoCommit = conn.getAutoCommit();
+        if (!autoCommit) {
+            // 先结束调用方未提交的事务
+            conn.commit();
+        }
+        conn.setAutoCommit(false);
+        try {
+            long rows = 0;
+            if (!deleteKeys.isEmpty()) {
+                rows += executeBatches(conn, deleteSql(), deleteKeys.size(), (statement, i) -> {
+                    Object[] key = deleteKeys.get(i);
+                    for (int k = 0; k < key.length; k++) {
+                        statement.setObject(k + 1, key[k]);
+                    }
+                });
+            }
+            // 变化的列相同的行用同一条预编译语句
+            Map<List<String>, List<RowDiff>> updateGroups = new LinkedHashMap<>();
+            for (RowDiff diff : updates) {
+                updateGroups.computeIfAbsent(diff.columns(), columns -> new ArrayList<>()).add(diff);
+            }
+            for (Map.Entry<List<String>, List<RowDiff>> group : updateGroups.entrySet()) {
+                List<String> columns = group.getKey();
+                List<RowDiff> rowsInGroup = group.getValue();
+                rows += executeBatches(conn, updateSql(columns), rowsInGroup.size(), (statement, i) -> {
+                    Map<String, Object> row = rowsInGroup.get(i).source();
+                    int index = 1;
+                    for (String column : columns) {
+                        statement.setObject(index++, row.get(column));
+                    }
+                    for (String column : pkColumns) {
+                        statement.setObject(index++, row.get(column));
+                    }
+                });
+            }
+            if (!upserts.isEmpty()) {
+                List<String> columns = new ArrayList<>(upserts.get(0).keySet());
+                rows += executeBatches(conn, upsertSql(columns), upserts.size(), (statement, i) -> {
+                    Map<String, Object> row = upserts.get(i);
+                    for (int c = 0; c < columns.size(); c++) {
+                        statement.setObject(c + 1, row.get(columns.get(c)));
+                    }
+                });
+            }
+            return rows;
+        } finally {
+            conn.setAutoCommit(autoCommit);
+        }
+    }
+
+    @FunctionalInterface
+    private interface Binder {
+        void bind(PreparedStatement statement, int index) throws SQLException;
+    }
+
+    private long executeBatches(Connection conn, String sql, int count, Binder binder) throws SQLException {
+        try (PreparedStatement statement = conn.prepareStatement(sql)) {
+            int pending = 0;
+            int batchSize = batchSize();
+            for (int i = 0; i < count; i++) {
+                binder.bind(statement, i);
+                statement.addBatch();
+                if (++pending >= batchSize) {
+                    commit(conn, statement);
+                    pending = 0;
+                    batchSize = afterBatch();
+                }
+            }
+            if (pending > 0) {
+                commit(conn, statement);
+                afterBatch();
+            }
+        }
+        return count;
+    }
+
+    private int batchSize() {
+        return throttle != null ? throttle.batchSize() : commitRows;
+    }
+
+    /**
+     * 一批提交之后，返回下一批的行数
+     */
+    private int afterBatch() throws SQLException {
+        if (throttle == null) {
+            return commitRows;
+        }
+        throttle.afterBatch();
+        return throttle.batchSize();
+    }
+
+    private static void commit(Connection conn, PreparedStatement statement) throws SQLException {
+        try {
+            statement.executeBatch();
+            conn.commit();
+        } catch (SQLException e) {
+            conn.rollback();
+            throw e;
+        }
+    }
+
+    private String upsertSql(List<String> columns) {
+        return "INSERT INTO " + table + " (" + String.join(", ", columns) + ") VALUES ("
+                + String.join(", ", Collections.nCopies(columns.size(), "?")) + ")"
+                + " ON DUPLICATE KEY UPDATE " + RepairSqlWriter.updateClause(columns, pkColumns);
+    }
+
+    private String updateSql(List<String> columns) {
+        List<String> sets = new ArrayList<>(columns.size());
+        for (String column : columns) {
+            sets.add(column + " = ?");
+        }
+        return "UPDATE " + table + " SET " + String.join(", ", sets) + " WHERE " + keyCondition();
+    }
+
+    private String deleteSql() {
+        return "DELETE FROM " + table + " WHERE " + keyCondition();
+    }
+
+    private String keyCondition() {
+        List<String> equals = new ArrayList<>(pkColumns.size());
+        for (String column : pkColumns) {
+            equals.add(column + " = ?");
+        }
+        return String.join(" AND ", equals);
+    }
+
+    private Object[] keyOf(Map<String, Object> row) {
+        Object[] key = new Object[pkColumns.size()];
+        for (int i = 0; i < key.length; i++) {
+            key[i] = row.get(pkColumns.get(i));
+        }
+        return key;
+    }
+
+    /**
+     * 按主键值的字符串形式取哈希，删除的主键和写入的行类型可能不同
+     */
+    private int partition(Object[] key) {
+        int hash = 1;
+        for (Object value : key) {
+            hash = 31 * hash + String.valueOf(value).hashCode();
+        }
+        return Math.floorMod(hash, writers);
+    }
+
+    private static long await(Future<Long> future) throws SQLException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("修复被中断", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof SQLException sqlException) {
+                throw sqlException;
+            }
+            throw new SQLException("修复失败", e.getCause());
+        }
+    }
+}
@@ -0,0 +1,395 @@
+package cn.info.verify;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * 可以断点续做的修复计划
+ * 修复语句原来只打印在控制台，重放到一半失败只能从头再来。这里把修复语句按块追加到计划文件：
+ * 每块以一行"@序号 语句数 字节数 CRC32"开头，后面是每行一条的语句；全部生成后以一行"# end 块数 语句数"结束。
+ * 生成中途失败的计划没有结束行，不能重放，避免把只修复了一部分的计划当成完整的执行。
+ * 重放时每块在一个事务中执行，提交后把序号和CRC写入检查点文件（计划文件名加.checkpoint），
+ * 重新执行同一个计划时跳过检查点之前的块。提交后、写检查点前中断时最后一块会再执行一次，
+ * 修复语句（按主键DELETE、UPDATE为固定值、INSERT ... ON DUPLICATE KEY UPDATE）重复执行的结果相同
+ */
+public final class RepairPlan {
+
+    public static final String SUFFIX = ".plan";
+    public static final int DEFAULT_CHUNK_STATEMENTS = 10;
+
+    private static final String HEADER = "# verify repair plan 1\n";
+    private static final String TRAILER = "# end ";
+    private static final String CHECKPOINT_SUFFIX = ".checkpoint";
+
+    private RepairPlan() {
+    }
+
+    /**
+     * 计划中的一块
+     * @param sequence 从1开始的序号
+     * @param crc 语句内容的CRC32
+     */
+    public record Chunk(long sequence, long crc, List<String> statements) {
+    }
+
+    /**
+     * 一次重放的结果
+     * @param chunks 本次执行的块数
+     * @param skipped 之前已经提交、本次跳过的块数
+     * @param statements 本次执行的语句数
+     * @param lastSequence 最后提交的块的序号
+     */
+    public record Replay(long chunks, long skipped, long statements, long lastSequence) {
+    }
+
+    /**
+     * 创建新的计划文件，已有的同名计划和它的检查点会被删除
+     * @param chunkStatements 每块的语句数，也就是重放时每个事务的语句数
+     */
+    public static Writer create(Path path, int chunkStatements) throws IOException {
+        Path parent = path.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        Files.deleteIfExists(checkpointPath(path));
+        return new Writer(path, Math.max(chunkStatements, 1));
+    }
+
+    /**
+     * 按块追加语句，不是线程安全的
+     * 全部语句追加完后调用finish写入结束行；没有调用finish就close时，未写入的语句被丢弃，计划不能重放
+     */
+    public static final class Writer implements Closeable {
+
+        private final Path path;
+        private final int chunkStatements;
+        private final FileChannel channel;
+        private final List<String> pending = new ArrayList<>();
+        private long sequence;
+        private long statements;
+        private boolean finished;
+
+        private Writer(Path path, int chunkStatements) throws IOException {
+            this.path = path;
+            this.chunkStatements = chunkStatements;
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            writeFully(ByteBuffer.wrap(HEADER.getBytes(StandardCharsets.UTF_8)));
+        }
+
+        /**
+         * 追加一条语句，可以直接作为RepairSqlWriter的输出
+         */
+        public void append(String sql) {
+            pending.add(sql);
+            if (pending.size() >= chunkStatements) {
+                try {
+                    writeChunk();
+                } catch (IOException e) {
+                    throw new UncheckedIOException("写入" + path + "失败", e);
+                }
+            }
+        }
+
+        public Path path() {
+            return path;
+        }
+
+        /**
+         * 已经写入的块数
+         */
+        public long chunks() {
+            return sequence;
+        }
+
+        /**
+         * 写入剩下的语句和结束行，之后不能再追加
+         */
+        public void finish() throws IOException {
+            if (finished) {
+                return;
+            }
+            if (!pending.isEmpty()) {
+                writeChunk();
+            }
+            writeFully(ByteBuffer.wrap(String.format(TRAILER + "%d %d\n", sequence, statements)
+                    .getBytes(StandardCharsets.UTF_8)));
+            channel.force(false);
+            finished = true;
+        }
+
+        private void writeChunk() throws IOException {
+            if (finished) {
+                throw new IllegalStateException(path + "已经结束");
+            }
+            byte[] payload = payload(pending);
+            sequence++;
+            statements += pending.size();
+            String head = String.format("@%d %d %d %08x\n", sequence, pending.size(), payload.length, crc(payload));
+            byte[] headBytes = head.getBytes(StandardCharsets.UTF_8);
+            // 一块一次写入
+            writeFully(ByteBuffer.allocate(headBytes.length + payload.length).put(headBytes).put(payload).flip());
+            pending.clear();
+        }
+
+        private void writeFully(ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            pending.clear();
+            channel.close();
+        }
+    }
+
+    /**
+     * 逐块读取计划，不会把整个文件读进内存。
+     * 最后一块不完整（写入时中断）时当作文件结束，isComplete为false；中间的块CRC不一致说明文件被改动过，直接报错
+     */
+    public static final class Reader implements Closeable {
+
+        private final Path path;
+        private final InputStream in;
+        private boolean finished;
+        private boolean complete;
+        private long chunks;
+        private long statements;
+
+        public Reader(Path path) throws IOException {
+            this.path = path;
+            this.in = new BufferedInputStream(Files.newInputStream(path));
+            String header = readLine(in);
+            if (header == null || !HEADER.equals(header + "\n")) {
+                in.close();
+                throw new IOException(path + "不是修复计划文件");
+            }
+        }
+
+        /**
+         * 下一块，没有完整的块时返回null
+         */
+        public Chunk next() throws IOException {
+            if (finished) {
+                return null;
+            }
+            String head;
+            try {
+                head = readLine(in);
+            } catch (EOFException e) {
+                head = null;
+            }
+            if (head == null) {
+                finished = true;
+                return null;
+            }
+            if (head.startsWith(TRAILER)) {
+                finished = true;
+                String[] counts = head.substring(TRAILER.length()).split(" ");
+                if (counts.length != 2 || Long.parseLong(counts[0]) != chunks || Long.parseLong(counts[1]) != statements) {
+                    throw new IOException(String.format("%s的结束行与内容不一致: %s（读到%d块%d条语句）", path, head, chunks, statements));
+                }
+                complete = true;
+                return null;
+            }
+            String[] fields = head.split(" ");
+            if (fields.length != 4 || !fields[0].startsWith("@")) {
+                throw new IOException(path + "中的块头格式错误: " + head);
+            }
+            long sequence = Long.parseLong(fields[0].substring(1));
+            int count = Integer.parseInt(fields[1]);
+            int length = Integer.parseInt(fields[2]);
+            long crc = Long.parseLong(fields[3], 16);
+
+            byte[] payload = in.readNBytes(length);
+            if (payload.length < length) {
+                finished = true;
+                return null;
+            }
+            if (crc(payload) != crc) {
+                throw new IOException(String.format("%s中第%d块的CRC不一致", path, sequence));
+            }
+            List<String> statements = List.of(new String(payload, StandardCharsets.UTF_8).split("\n"));
+            if (statements.size() != count) {
+                throw new IOException(String.format("%s中第%d块的语句数不一致", path, sequence));
+            }
+            chunks++;
+            this.statements += count;
+            return new Chunk(sequence, crc, statements);
+        }
+
+        /**
+         * 已经读到结束行，并且块数和语句数与结束行一致
+         */
+        public boolean isComplete() {
+            return complete;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    /**
+     * 在conn上重放计划，从检查点之后的块开始
+     * @param throttle 为null时不检查从库延迟，否则每块提交后调用一次afterBatch
+     * @throws IOException 计划没有结束行（生成时中断）、内容被改动过或与检查点不一致
+     */
+    public static Replay replay(Connection conn, Path path, RepairThrottle throttle) throws SQLException, IOException {
+        // 执行任何一块之前先确认计划是完整生成的
+        if (!hasTrailer(path)) {
+            throw new IOException(String.format("计划%s没有结束行，生成时可能中断，不能重放", path));
+        }
+        Path checkpoint = checkpointPath(path);
+        Chunk committed = readCheckpoint(checkpoint);
+
+        long executed = 0;
+        long skipped = 0;
+        long statements = 0;
+        long last = committed == null ? 0 : committed.sequence();
+        boolean autoCommit = conn.getAutoCommit();
+        if (!autoCommit) {
+            conn.commit();
+        }
+        conn.setAutoCommit(false);
+        try (Reader reader = new Reader(path);
+             Statement statement = conn.createStatement()) {
+            Chunk chunk;
+            while ((chunk = reader.next()) != null) {
+                if (committed != null && chunk.sequence() <= committed.sequence()) {
+                    // 检查点记录的块必须还在计划中且CRC相同，否则计划已经被重新生成，不能接着执行
+                    if (chunk.sequence() == committed.sequence() && chunk.crc() != committed.crc()) {
+                        throw new IOException(String.format("检查点%s与计划不一致（第%d块），请删除检查点后重新执行",
+                                checkpoint, committed.sequence()));
+                    }
+                    skipped++;
+                    continue;
+                }
+                try {
+                    for (String sql : chunk.statements()) {
+                        statement.execute(sql);
+                    }
+                    conn.commit();
+                } catch (SQLException e) {
+                    conn.rollback();
+                    throw e;
+                }
+                writeCheckpoint(checkpoint, chunk);
+                executed++;
+                statements += chunk.statements().size();
+                last = chunk.sequence();
+                if (throttle != null) {
+                    throttle.afterBatch();
+                }
+            }
+            if (!reader.isComplete()) {
+                throw new IOException(String.format("计划%s在第%d块之后被截断", path, last));
+            }
+        } finally {
+            conn.setAutoCommit(autoCommit);
+        }
+        if (committed != null && skipped < committed.sequence()) {
+            throw new IOException(String.format("计划%s只有%d块，检查点已经到第%d块", path, skipped, committed.sequence()));
+        }
+        return new Replay(executed, skipped, statements, last);
+    }
+
+    /**
+     * 文件的最后一行是否为结束行，只读取文件末尾
+     */
+    static boolean hasTrailer(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            int length = (int) Math.min(size, 128);
+            ByteBuffer tail = ByteBuffer.allocate(length);
+            while (tail.hasRemaining()) {
+                if (channel.read(tail, size - length + tail.position()) < 0) {
+                    break;
+                }
+            }
+            String text = new String(tail.array(), 0, tail.position(), StandardCharsets.UTF_8);
+            if (!text.endsWith("\n")) {
+                return false;
+            }
+            int start = text.lastIndexOf('\n', text.length() - 2) + 1;
+            return text.startsWith(TRAILER, start);
+        }
+    }
+
+    public static Path checkpointPath(Path plan) {
+        return plan.resolveSibling(plan.getFileName() + CHECKPOINT_SUFFIX);
+    }
+
+    /**
+     * 检查点中最后提交的块（只有序号和CRC），没有检查点时返回null
+     */
+    private static Chunk readCheckpoint(Path checkpoint) throws IOException {
+        if (!Files.exists(checkpoint)) {
+            return null;
+        }
+        String[] fields = Files.readString(checkpoint, StandardCharsets.UTF_8).trim().split(" ");
+        return new Chunk(Long.parseLong(fields[0]), Long.parseLong(fields[1], 16), List.of());
+    }
+
+    /**
+     * 先写临时文件再改名，中断时检查点要么是旧的要么是新的
+     */
+    private static void writeCheckpoint(Path checkpoint, Chunk chunk) throws IOException {
+        Path temp = checkpoint.resolveSibling(checkpoint.getFileName() + ".tmp");
+        Files.writeString(temp, String.format("%d %08x\n", chunk.sequence(), chunk.crc()), StandardCharsets.UTF_8);
+        Files.move(temp, checkpoint, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static byte[] payload(List<String> statements) {
+        StringBuilder sb = new StringBuilder();
+        for (String sql : statements) {
+            sb.append(sql).append('\n');
+        }
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static long crc(byte[] bytes) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        return crc.getValue();
+    }
+
+    /**
+     * 读取一行（不含换行符），文件结束时返回null，行不完整时抛出EOFException
+     */
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != -1) {
+            if (b == '\n') {
+                return line.toString(StandardCharsets.UTF_8);
+            }
+            line.write(b);
+        }
+        if (line.size() == 0) {
+            return null;
+        }
+        throw new EOFException();
+    }
+}
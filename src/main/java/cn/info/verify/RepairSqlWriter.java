@@ -0,0 +1,238 @@
+package cn.info.verify;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * 生成多行的修复语句
+ * 原来每行一条UPDATE/INSERT/DELETE，所有值都加引号，重放百万行的修复脚本要几个小时。
+ * 这里缺少和不同的行合并成多行的INSERT ... ON DUPLICATE KEY UPDATE，多余的行合并成按主键的DELETE，
+ * 每条语句不超过目标库的max_allowed_packet；值按类型生成字面量：NULL、数字不加引号，二进制用X'..'，
+ * 字符串和时间加引号并转义
+ */
+public final class RepairSqlWriter {
+
+    public static final long DEFAULT_MAX_ALLOWED_PACKET = 4L * 1024 * 1024;
+
+    // 给协议头等预留的字节数
+    private static final int PACKET_HEADROOM = 1024;
+
+    private static final HexFormat HEX = HexFormat.of().withUpperCase();
+
+    private final String table;
+    private final List<String> pkColumns;
+    private final long maxStatementBytes;
+
+    /**
+     * @param table 目标表
+     * @param pkColumns 主键列
+     * @param maxAllowedPacket 目标库的max_allowed_packet
+     */
+    public RepairSqlWriter(String table, List<String> pkColumns, long maxAllowedPacket) {
+        this.table = table;
+        this.pkColumns = pkColumns;
+        this.maxStatementBytes = Math.max(maxAllowedPacket - PACKET_HEADROOM, PACKET_HEADROOM);
+    }
+
+    /**
+     * 读取目标库的max_allowed_packet，失败时使用MySQL 5.7的默认值
+     */
+    public static long maxAllowedPacket(Connection conn) {
+        try (Statement statement = conn.createStatement();
+             ResultSet rs = statement.executeQuery("SELECT @@max_allowed_packet")) {
+            return rs.next() ? rs.getLong(1) : DEFAULT_MAX_ALLOWED_PACKET;
+        } catch (SQLException e) {
+            return DEFAULT_MAX_ALLOWED_PACKET;
+        }
+    }
+
+    /**
+     * 缺少的行插入，已有的行用源表的值整行覆盖，主键列不在UPDATE部分
+     * @param rows 源表的行，列名到值
+     */
+    public void writeUpserts(List<Map<String, Object>> rows, Consumer<String> out) {
+        if (rows.isEmpty()) {
+            return;
+        }
+        List<String> columns = new ArrayList<>(rows.get(0).keySet());
+        String head = "INSERT INTO " + table + " (" + String.join(", ", columns) + ") VALUES ";
+        String tail = " ON DUPLICATE KEY UPDATE " + updateClause(columns, pkColumns) + ";";
+
+        List<String> tuples = new ArrayList<>(rows.size());
+        for (Map<String, Object> row : rows) {
+            List<String> values = new ArrayList<>(columns.size());
+            for (String column : columns) {
+                values.add(literal(row.get(column)));
+            }
+            tuples.add("(" + String.join(", ", values) + ")");
+        }
+        writeBatches(head, ", ", tuples, tail, out);
+    }
+
+    /**
+     * ON DUPLICATE KEY UPDATE部分：非主键列取新值，只有主键列时已有的行不需要修改
+     */
+    static String updateClause(List<String> columns, List<String> pkColumns) {
+        List<String> updates = new ArrayList<>();
+        for (String column : columns) {
+            if (!pkColumns.contains(column)) {
+                updates.add(column + " = VALUES(" + column + ")");
+            }
+        }
+        if (updates.isEmpty()) {
+            updates.add(pkColumns.get(0) + " = " + pkColumns.get(0));
+        }
+        return String.join(", ", updates);
+    }
+
+    /**
+     * 变更行只UPDATE实际不同的列，每行一条语句
+     */
+    public void writeUpdates(List<RowDiff> diffs, Consumer<String> out) {
+        for (RowDiff diff : diffs) {
+            List<String> sets = new ArrayList<>(diff.columns().size());
+            for (String column : diff.columns()) {
+                sets.add(column + " = " + literal(diff.source().get(column)));
+            }
+            Object[] key = keyOf(diff.source());
+            List<String> equals = new ArrayList<>(pkColumns.size());
+            for (int i = 0; i < pkColumns.size(); i++) {
+                equals.add(pkColumns.get(i) + (key[i] == null ? " IS NULL" : " = " + literal(key[i])));
+            }
+            out.accept("UPDATE " + table + " SET " + String.join(", ", sets)
+                    + " WHERE " + String.join(" AND ", equals) + ";");
+        }
+    }
+
+    /**
+     * 按主键删除，单列主键用pk IN (...)，组合主键用(a = .. AND b = ..) OR (...)
+     * @param keys 主键值，顺序与pkColumns相同
+     */
+    public void writeDeletes(List<Object[]> keys, Consumer<String> out) {
+        if (keys.isEmpty()) {
+            return;
+        }
+        List<String> items = new ArrayList<>(keys.size());
+        for (Object[] key : keys) {
+            if (pkColumns.size() == 1) {
+                items.add(literal(key[0]));
+            } else {
+                List<String> equals = new ArrayList<>(pkColumns.size());
+                for (int i = 0; i < pkColumns.size(); i++) {
+                    equals.add(pkColumns.get(i) + (key[i] == null ? " IS NULL" : " = " + literal(key[i])));
+                }
+                items.add("(" + String.join(" AND ", equals) + ")");
+            }
+        }
+        if (pkColumns.size() == 1) {
+            writeBatches("DELETE FROM " + table + " WHERE " + pkColumns.get(0) + " IN (", ", ", items, ");", out);
+        } else {
+            writeBatches("DELETE FROM " + table + " WHERE ", " OR ", items, ";", out);
+        }
+    }
+
+    /**
+     * 行的主键值，顺序与pkColumns相同
+     */
+    public Object[] keyOf(Map<String, Object> row) {
+        Object[] key = new Object[pkColumns.size()];
+        for (int i = 0; i < key.length; i++) {
+            key[i] = row.get(pkColumns.get(i));
+        }
+        return key;
+    }
+
+    /**
+     * head + items（以separator分隔）+ tail，超过max_allowed_packet时拆成多条语句；
+     * 单个item本身就超过上限时单独成一条
+     */
+    private void writeBatches(String head, String separator, List<String> items, String tail, Consumer<String> out) {
+        long fixedBytes = utf8Length(head) + utf8Length(tail);
+        long separatorBytes = utf8Length(separator);
+        StringBuilder sql = new StringBuilder(head);
+        long bytes = fixedBytes;
+        int count = 0;
+        for (String item : items) {
+            long itemBytes = utf8Length(item);
+            if (count > 0 && bytes + separatorBytes + itemBytes > maxStatementBytes) {
+                out.accept(sql.append(tail).toString());
+                sql.setLength(0);
+                sql.append(head);
+                bytes = fixedBytes;
+                count = 0;
+            }
+            if (count > 0) {
+                sql.append(separator);
+                bytes += separatorBytes;
+            }
+            sql.append(item);
+            bytes += itemBytes;
+            count++;
+        }
+        if (count > 0) {
+            out.accept(sql.append(tail).toString());
+        }
+    }
+
+    /**
+     * 按值的类型生成SQL字面量
+     */
+    public static String literal(Object value) {
+        if (value == null) {
+            return "NULL";
+        }
+        if (value instanceof BigDecimal decimal) {
+            return decimal.toPlainString();
+        }
+        if (value instanceof Number) {
+            return value.toString();
+        }
+        if (value instanceof Boolean bool) {
+            return bool ? "1" : "0";
+        }
+        if (value instanceof byte[] bytes) {
+            return "X'" + HEX.formatHex(bytes) + "'";
+        }
+        if (value instanceof LocalDateTime dateTime) {
+            return "'" + dateTime.toString().replace('T', ' ') + "'";
+        }
+        return quote(value.toString());
+    }
+
+    private static String quote(String value) {
+        StringBuilder sb = new StringBuilder(value.length() + 2).append('\'');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\'' -> sb.append("\\'");
+                case '\\' -> sb.append("\\\\");
+                case '\0' -> sb.append("\\0");
+                case '\n' -> sb.append("\\n");
+                case '\r' -> sb.append("\\r");
+                case '\032' -> sb.append("\\Z");
+                default -> sb.append(c);
+            }
+        }
+        return sb.append('\'').toString();
+    }
+
+    private static long utf8Length(String s) {
+        // 只有非ASCII字符才需要按UTF-8计算
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) >= 0x80) {
+                return s.getBytes(StandardCharsets.UTF_8).length;
+            }
+        }
+        return s.length();
+    }
+}
@@ -0,0 +1,125 @@
+package cn.info.verify;
+
+import java.sql.SQLException;
+
+/**
+ * 按从库延迟控制直接修复的节奏
+ * 一次性写入大量修复会让从库落后几分钟。RepairApplier每提交一批调用一次afterBatch：
+ * 延迟不超过resumeLagMillis时批大小翻倍（不超过maxBatch），在resumeLagMillis和maxLagMillis之间时减半（不小于minBatch），
+ * 达到maxLagMillis或无法得到延迟时批大小降到minBatch并暂停，每pollMillis探测一次，直到延迟降到resumeLagMillis以下；
+ * 暂停超过maxPauseMillis时抛出异常，已经提交的批不会回滚。
+ * 多个写入连接共用一个实例，暂停时所有写入连接都会等待
+ */
+public class RepairThrottle {
+
+    public static final long DEFAULT_MAX_LAG_MILLIS = 10_000;
+    public static final long DEFAULT_RESUME_LAG_MILLIS = 2_000;
+    public static final int DEFAULT_MIN_BATCH = 50;
+    public static final long DEFAULT_POLL_MILLIS = 1_000;
+    public static final long DEFAULT_MAX_PAUSE_MILLIS = 30 * 60_000L;
+
+    /**
+     * 暂停的方式，测试时可以替换成不真正等待的实现
+     */
+    @FunctionalInterface
+    interface Sleeper {
+        void sleep(long millis) throws InterruptedException;
+    }
+
+    private final LagProbe probe;
+    private final long maxLagMillis;
+    private final long resumeLagMillis;
+    private final int minBatch;
+    private final int maxBatch;
+    private long pollMillis = DEFAULT_POLL_MILLIS;
+    private long maxPauseMillis = DEFAULT_MAX_PAUSE_MILLIS;
+    private Sleeper sleeper = Thread::sleep;
+
+    private int batchSize;
+    private int pauses;
+    private long pausedMillis;
+
+    /**
+     * @param maxLagMillis 达到这个延迟时暂停
+     * @param resumeLagMillis 暂停后延迟降到这个值以下才继续，大于maxLagMillis时取maxLagMillis
+     * @param minBatch 最小的批大小，也是开始时的批大小
+     * @param maxBatch 最大的批大小
+     */
+    public RepairThrottle(LagProbe probe, long maxLagMillis, long resumeLagMillis, int minBatch, int maxBatch) {
+        this.probe = probe;
+        this.maxLagMillis = maxLagMillis;
+        this.resumeLagMillis = Math.min(resumeLagMillis, maxLagMillis);
+        this.minBatch = Math.max(minBatch, 1);
+        this.maxBatch = Math.max(maxBatch, this.minBatch);
+        this.batchSize = this.minBatch;
+    }
+
+    public void setPollMillis(long pollMillis) {
+        this.pollMillis = Math.max(pollMillis, 1);
+    }
+
+    public void setMaxPauseMillis(long maxPauseMillis) {
+        this.maxPauseMillis = maxPauseMillis;
+    }
+
+    void setSleeper(Sleeper sleeper) {
+        this.sleeper = sleeper;
+    }
+
+    /**
+     * 下一批提交的行数
+     */
+    public synchronized int batchSize() {
+        return batchSize;
+    }
+
+    /**
+     * 一批提交后调用，按当前延迟调整批大小，必要时暂停
+     */
+    public synchronized void afterBatch() throws SQLException {
+        long lag = probe.lagMillis();
+        if (lag != LagProbe.UNKNOWN && lag <= resumeLagMillis) {
+            batchSize = (int) Math.min((long) batchSize * 2, maxBatch);
+        } else if (lag != LagProbe.UNKNOWN && lag < maxLagMillis) {
+            batchSize = Math.max(batchSize / 2, minBatch);
+        } else {
+            batchSize = minBatch;
+            pause(lag);
+        }
+    }
+
+    private void pause(long lag) throws SQLException {
+        pauses++;
+        long waited = 0;
+        while (lag == LagProbe.UNKNOWN || lag > resumeLagMillis) {
+            if (waited >= maxPauseMillis) {
+                pausedMillis += waited;
+                throw new SQLException(String.format("从库延迟%d毫秒内没有降到%d毫秒以下，最后一次探测为%d毫秒",
+                        maxPauseMillis, resumeLagMillis, lag));
+            }
+            try {
+                sleeper.sleep(pollMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("修复被中断", e);
+            }
+            waited += pollMillis;
+            lag = probe.lagMillis();
+        }
+        pausedMillis += waited;
+    }
+
+    /**
+     * 暂停的次数
+     */
+    public synchronized int getPauses() {
+        return pauses;
+    }
+
+    /**
+     * 暂停的总时间（毫秒）
+     */
+    public synchronized long getPausedMillis() {
+        return pausedMillis;
+    }
+}
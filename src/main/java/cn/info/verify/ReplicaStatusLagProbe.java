@@ -0,0 +1,61 @@
+package cn.info.verify;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * 从SHOW REPLICA STATUS读取延迟
+ * MySQL 8.0.22之前只有SHOW SLAVE STATUS，列名也是Seconds_Behind_Master，两种都支持。
+ * 不是从库、复制线程停止时Seconds_Behind_Source为NULL，返回UNKNOWN
+ */
+public class ReplicaStatusLagProbe implements LagProbe {
+
+    private static final int ER_PARSE_ERROR = 1064;
+
+    private final DataSource replica;
+    private volatile boolean legacySyntax;
+
+    public ReplicaStatusLagProbe(DataSource replica) {
+        this.replica = replica;
+    }
+
+    @Override
+    public long lagMillis() throws SQLException {
+        try (Connection conn = replica.getConnection();
+             Statement statement = conn.createStatement()) {
+            if (!legacySyntax) {
+                try (ResultSet rs = statement.executeQuery("SHOW REPLICA STATUS")) {
+                    return secondsBehind(rs, "Seconds_Behind_Source");
+                } catch (SQLException e) {
+                    // 较老的版本不认识REPLICA，报语法错误，之后都用旧的语法；
+                    // 连接断开、没有REPLICATION CLIENT权限等其他错误直接抛出，8.4以后已经没有SHOW SLAVE STATUS
+                    if (!isSyntaxError(e)) {
+                        throw e;
+                    }
+                    legacySyntax = true;
+                }
+            }
+            try (ResultSet rs = statement.executeQuery("SHOW SLAVE STATUS")) {
+                return secondsBehind(rs, "Seconds_Behind_Master");
+            }
+        }
+    }
+
+    /**
+     * 只看1064，缺少权限的1227也是SQLState 42000
+     */
+    private static boolean isSyntaxError(SQLException e) {
+        return e.getErrorCode() == ER_PARSE_ERROR && "42000".equals(e.getSQLState());
+    }
+
+    private static long secondsBehind(ResultSet rs, String column) throws SQLException {
+        if (!rs.next()) {
+            return UNKNOWN;
+        }
+        long seconds = rs.getLong(column);
+        return rs.wasNull() ? UNKNOWN : seconds * 1000;
+    }
+}
@@ -0,0 +1,68 @@
+package cn.info.verify;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+
+/**
+ * 两边都存在但内容不同的一行，以及实际不同的列
+ * 原来变更行整行覆盖（VerifyClient甚至把主键列也放进SET），宽表上只差一列时修复语句、binlog和从库回放都会放大。
+ * 这里把两边取回的行逐列比较，修复时只UPDATE不同的列，差异报告也能列出变化的列
+ * @param source 源表的行，列名到值
+ * @param columns 与目标表不同的非主键列，按源表的列顺序
+ */
+public record RowDiff(Map<String, Object> source, List<String> columns) {
+
+    /**
+     * 逐列比较同一主键的两行
+     * @param target 目标表的行，为null时（行已经被删除等）视为所有非主键列都不同
+     * @return 所有列都相同时返回null
+     */
+    public static RowDiff compare(Map<String, Object> source, Map<String, Object> target, List<String> pkColumns) {
+        List<String> columns = new ArrayList<>();
+        for (Map.Entry<String, Object> entry : source.entrySet()) {
+            if (pkColumns.contains(entry.getKey())) {
+                continue;
+            }
+            if (target == null || !sameValue(entry.getValue(), target.get(entry.getKey()))) {
+                columns.add(entry.getKey());
+            }
+        }
+        return columns.isEmpty() ? null : new RowDiff(source, columns);
+    }
+
+    /**
+     * 每一列在多少行中不同
+     */
+    public static Map<String, Long> countColumns(List<RowDiff> diffs) {
+        Map<String, Long> counts = new TreeMap<>();
+        for (RowDiff diff : diffs) {
+            for (String column : diff.columns()) {
+                counts.merge(column, 1L, Long::sum);
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * BigDecimal按数值比较（小数位数可能不同），二进制按内容比较；
+     * 一边是字符串、另一边不是时按字符串比较，两边都应当用getObject读取，这只是兜底
+     */
+    static boolean sameValue(Object value1, Object value2) {
+        if (value1 instanceof BigDecimal decimal1 && value2 instanceof BigDecimal decimal2) {
+            return decimal1.compareTo(decimal2) == 0;
+        }
+        if (value1 instanceof byte[] bytes1 && value2 instanceof byte[] bytes2) {
+            return Arrays.equals(bytes1, bytes2);
+        }
+        if (value1 != null && value2 != null && value1.getClass() != value2.getClass()
+                && (value1 instanceof String || value2 instanceof String)) {
+            return value1.toString().equals(value2.toString());
+        }
+        return Objects.equals(value1, value2);
+    }
+}
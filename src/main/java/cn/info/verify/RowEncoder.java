@@ -0,0 +1,202 @@
+package cn.info.verify;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+
+/**
+ * 按列类型把ResultSet的当前行编码成二进制，再交给RowHasher计算哈希
+ * 原来每个字段都要getString、放进HashMap、拼到StringBuilder里再做一次UTF-8编码，
+ * 这里根据ResultSetMetaData为每一列选好读取方式，直接写入复用的字节缓冲区：
+ * 整数用getLong，浮点数取double的位，日期时间取数值，其余用getBytes。
+ * BIGINT UNSIGNED可能超出long的范围，TIME可能为负或超过24小时，这两种也直接取原始字节。
+ * 每个字段的编码是：NULL写一个0字节；非NULL先写1，定长值再写8个字节，变长值写4字节长度加内容，
+ * 所以NULL和空字符串不会再得到相同的哈希。
+ * 缓冲区是实例自己的，一个实例只能在一个线程中使用
+ */
+public final class RowEncoder {
+
+    private static final byte NULL_MARK = 0;
+    private static final byte VALUE_MARK = 1;
+
+    private final int[] indexes;
+    private final ColumnWriter[] writers;
+    private byte[] buffer = new byte[256];
+    private int length;
+
+    private RowEncoder(int[] indexes, ColumnWriter[] writers) {
+        this.indexes = indexes;
+        this.writers = writers;
+    }
+
+    /**
+     * 编码结果集中的所有列
+     */
+    public static RowEncoder forColumns(ResultSetMetaData metaData) throws SQLException {
+        int[] indexes = new int[metaData.getColumnCount()];
+        for (int i = 0; i < indexes.length; i++) {
+            indexes[i] = i + 1;
+        }
+        return forColumns(metaData, indexes);
+    }
+
+    /**
+     * 只编码指定的列，例如主键列
+     * @param indexes 列下标，从1开始
+     */
+    public static RowEncoder forColumns(ResultSetMetaData metaData, int[] indexes) throws SQLException {
+        ColumnWriter[] writers = new ColumnWriter[indexes.length];
+        for (int i = 0; i < indexes.length; i++) {
+            writers[i] = writerFor(metaData, indexes[i]);
+        }
+        return new RowEncoder(indexes.clone(), writers);
+    }
+
+    /**
+     * 编码当前行并计算哈希
+     */
+    public Signature128 hash(ResultSet rs, RowHasher hasher) throws SQLException {
+        encode(rs);
+        return hasher.hash(buffer, 0, length);
+    }
+
+    /**
+     * 编码当前行，结果在buffer()的前length()个字节中
+     */
+    public void encode(ResultSet rs) throws SQLException {
+        length = 0;
+        for (int i = 0; i < indexes.length; i++) {
+            writers[i].write(this, rs, indexes[i]);
+        }
+    }
+
+    public byte[] buffer() {
+        return buffer;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    private static ColumnWriter writerFor(ResultSetMetaData metaData, int index) throws SQLException {
+        int sqlType = metaData.getColumnType(index);
+        if (sqlType == Types.BIGINT && !metaData.isSigned(index)) {
+            return RowEncoder::writeBytes;
+        }
+        return switch (sqlType) {
+            case Types.TINYINT, Types.SMALLINT, Types.INTEGER, Types.BIGINT, Types.BOOLEAN -> RowEncoder::writeLong;
+            case Types.REAL, Types.FLOAT, Types.DOUBLE -> RowEncoder::writeDouble;
+            case Types.DATE -> RowEncoder::writeDate;
+            case Types.TIMESTAMP -> RowEncoder::writeDateTime;
+            case Types.TIMESTAMP_WITH_TIMEZONE -> RowEncoder::writeTimestamp;
+            // 字符串、DECIMAL、二进制、BIT、TIME等直接取驱动返回的原始字节
+            default -> RowEncoder::writeBytes;
+        };
+    }
+
+    private static void writeLong(RowEncoder encoder, ResultSet rs, int index) throws SQLException {
+        long value = rs.getLong(index);
+        if (rs.wasNull()) {
+            encoder.putNull();
+        } else {
+            encoder.putLong(value);
+        }
+    }
+
+    private static void writeDouble(RowEncoder encoder, ResultSet rs, int index) throws SQLException {
+        double value = rs.getDouble(index);
+        if (rs.wasNull()) {
+            encoder.putNull();
+        } else {
+            encoder.putLong(Double.doubleToLongBits(value));
+        }
+    }
+
+    private static void writeDate(RowEncoder encoder, ResultSet rs, int index) throws SQLException {
+        LocalDate value = rs.getObject(index, LocalDate.class);
+        if (value == null) {
+            encoder.putNull();
+        } else {
+            encoder.putLong(value.toEpochDay());
+        }
+    }
+
+    /**
+     * DATETIME按字面值编码，不受两边会话时区的影响
+     */
+    private static void writeDateTime(RowEncoder encoder, ResultSet rs, int index) throws SQLException {
+        LocalDateTime value = rs.getObject(index, LocalDateTime.class);
+        if (value == null) {
+            encoder.putNull();
+        } else {
+            encoder.putLong(value.toEpochSecond(ZoneOffset.UTC));
+            encoder.putRawLong(value.getNano());
+        }
+    }
+
+    private static void writeTimestamp(RowEncoder encoder, ResultSet rs, int index) throws SQLException {
+        Timestamp value = rs.getTimestamp(index);
+        if (value == null) {
+            encoder.putNull();
+        } else {
+            encoder.putLong(value.getTime());
+            encoder.putRawLong(value.getNanos());
+        }
+    }
+
+    private static void writeBytes(RowEncoder encoder, ResultSet rs, int index) throws SQLException {
+        byte[] value = rs.getBytes(index);
+        if (value == null) {
+            encoder.putNull();
+        } else {
+            encoder.putBytes(value);
+        }
+    }
+
+    private void putNull() {
+        ensure(1);
+        buffer[length++] = NULL_MARK;
+    }
+
+    private void putLong(long value) {
+        ensure(1);
+        buffer[length++] = VALUE_MARK;
+        putRawLong(value);
+    }
+
+    private void putRawLong(long value) {
+        ensure(8);
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            buffer[length++] = (byte) (value >>> shift);
+        }
+    }
+
+    private void putBytes(byte[] value) {
+        ensure(5 + value.length);
+        buffer[length++] = VALUE_MARK;
+        int n = value.length;
+        buffer[length++] = (byte) (n >>> 24);
+        buffer[length++] = (byte) (n >>> 16);
+        buffer[length++] = (byte) (n >>> 8);
+        buffer[length++] = (byte) n;
+        System.arraycopy(value, 0, buffer, length, n);
+        length += n;
+    }
+
+    private void ensure(int extra) {
+        if (length + extra > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length << 1, length + extra));
+        }
+    }
+
+    @FunctionalInterface
+    private interface ColumnWriter {
+        void write(RowEncoder encoder, ResultSet rs, int index) throws SQLException;
+    }
+}
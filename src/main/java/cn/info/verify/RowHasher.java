@@ -0,0 +1,57 @@
+package cn.info.verify;
+
+/**
+ * 行哈希算法
+ * 客户端引擎（VerifyClient）用它对RowEncoder编码出的行字节计算compare_sign和pk_hash。
+ * 输入是二进制编码而不是CONCAT_WS拼接的字符串，结果不能和服务端的MD5(CONCAT_WS(...))比较，两边必须都在客户端计算，
+ * 默认MD5，也可以换成更快的非加密哈希。
+ * 实现必须是线程安全的，VerifyClient在KeysetScanner的各个区间线程中共用同一个实例
+ */
+public interface RowHasher {
+
+    String MD5 = "md5";
+    String MURMUR3 = "murmur3";
+
+    /**
+     * 算法名称，与forName的参数对应
+     */
+    String name();
+
+    /**
+     * 计算input[offset, offset+length)的128位哈希
+     */
+    Signature128 hash(byte[] input, int offset, int length);
+
+    default Signature128 hash(byte[] input) {
+        return hash(input, 0, input.length);
+    }
+
+    /**
+     * 服务端SQL中对应的哈希函数，用于生成比较表的INSERT语句；
+     * 返回null表示只能在客户端使用
+     */
+    default String sqlFunction() {
+        return null;
+    }
+
+    static RowHasher md5() {
+        return new Md5RowHasher();
+    }
+
+    static RowHasher murmur3() {
+        return new Murmur3RowHasher();
+    }
+
+    /**
+     * 根据名称选择哈希算法，null或空字符串时使用MD5
+     */
+    static RowHasher forName(String name) {
+        if (name == null || name.isEmpty() || MD5.equalsIgnoreCase(name)) {
+            return md5();
+        }
+        if (MURMUR3.equalsIgnoreCase(name)) {
+            return murmur3();
+        }
+        throw new IllegalArgumentException("不支持的行哈希算法: " + name);
+    }
+}
@@ -9,15 +9,22 @@ import java.util.Objects;
 @Setter
 public class RowSignature {
 
-    private String compareSign;
-    private String pkHash;
+    private Signature128 compareSign;
+    private Signature128 pkHash;
+    private String[] pkValues;  // 比较表中保存的主键值，不参与比较
 
     // 构造函数、getter/setter
-    public RowSignature(String compareSign, String pkHash) {
+    public RowSignature(Signature128 compareSign, Signature128 pkHash) {
         this.compareSign = compareSign;
         this.pkHash = pkHash;
     }
 
+    public RowSignature(Signature128 compareSign, Signature128 pkHash, String[] pkValues) {
+        this.compareSign = compareSign;
+        this.pkHash = pkHash;
+        this.pkValues = pkValues;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -0,0 +1,126 @@
+package cn.info.verify;
+
+import lombok.Getter;
+
+/**
+ * 128位摘要（MD5等）的紧凑表示
+ * 原来用32个字符的十六进制String保存摘要，求和时又拆成char[]再解析一遍，
+ * 这里直接用两个long保存，span和四段求和的值都可以通过位运算得到
+ */
+@Getter
+public final class Signature128 {
+
+    private static final char[] HEX_ARRAY = "0123456789abcdef".toCharArray();
+
+    private final long hi;  // 摘要的前8个字节
+    private final long lo;  // 摘要的后8个字节
+
+    public Signature128(long hi, long lo) {
+        this.hi = hi;
+        this.lo = lo;
+    }
+
+    /**
+     * 由16字节的摘要构造（大端序）
+     */
+    public static Signature128 of(byte[] digest) {
+        if (digest == null || digest.length != 16) {
+            throw new IllegalArgumentException("摘要必须是16个字节");
+        }
+        return new Signature128(readLong(digest, 0), readLong(digest, 8));
+    }
+
+    /**
+     * 由32个字符的十六进制字符串构造，只在和外部十六进制结果对接时使用
+     */
+    public static Signature128 fromHex(String hex) {
+        if (hex == null || hex.length() != 32) {
+            throw new IllegalArgumentException("MD5哈希值必须是32个字符: " + hex);
+        }
+        return new Signature128(Long.parseUnsignedLong(hex.substring(0, 16), 16),
+                Long.parseUnsignedLong(hex.substring(16), 16));
+    }
+
+    /**
+     * 取摘要的前spanKeySize个十六进制位作为span
+     * @param spanKeySize 十六进制位数，1-16
+     */
+    public long span(int spanKeySize) {
+        if (spanKeySize <= 0 || spanKeySize > 16) {
+            throw new IllegalArgumentException("span位数必须在1-16之间: " + spanKeySize);
+        }
+        return hi >>> (64 - (spanKeySize << 2));
+    }
+
+    /**
+     * 四部分中的第index部分（每部分32位，对应原来的8个十六进制字符）
+     */
+    public long part(int index) {
+        return switch (index) {
+            case 0 -> hi >>> 32;
+            case 1 -> hi & 0xFFFFFFFFL;
+            case 2 -> lo >>> 32;
+            case 3 -> lo & 0xFFFFFFFFL;
+            default -> throw new IllegalArgumentException("part下标必须在0-3之间: " + index);
+        };
+    }
+
+    /**
+     * span转换成十六进制字符串，位数不足时补0，与HashSummaryTable中的span格式一致
+     */
+    public static String spanToHex(long span, int spanKeySize) {
+        char[] chars = new char[spanKeySize];
+        for (int i = spanKeySize - 1; i >= 0; i--) {
+            chars[i] = HEX_ARRAY[(int) (span & 0x0F)];
+            span >>>= 4;
+        }
+        return new String(chars);
+    }
+
+    public static long spanFromHex(String spanHex) {
+        return Long.parseUnsignedLong(spanHex, 16);
+    }
+
+    public byte[] toBytes() {
+        byte[] bytes = new byte[16];
+        writeLong(bytes, 0, hi);
+        writeLong(bytes, 8, lo);
+        return bytes;
+    }
+
+    public String toHex() {
+        return spanToHex(hi, 16) + spanToHex(lo, 16);
+    }
+
+    private static long readLong(byte[] bytes, int offset) {
+        long value = 0;
+        for (int i = offset; i < offset + 8; i++) {
+            value = (value << 8) | (bytes[i] & 0xFF);
+        }
+        return value;
+    }
+
+    private static void writeLong(byte[] bytes, int offset, long value) {
+        for (int i = offset + 7; i >= offset; i--) {
+            bytes[i] = (byte) value;
+            value >>>= 8;
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof Signature128 that)) return false;
+        return hi == that.hi && lo == that.lo;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(hi) * 31 + Long.hashCode(lo);
+    }
+
+    @Override
+    public String toString() {
+        return toHex();
+    }
+}
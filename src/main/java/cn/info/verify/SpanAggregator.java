@@ -0,0 +1,214 @@
+package cn.info.verify;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * span汇总表：span -> (count, sum1..sum4)
+ * 每行都要累加一次，原来的HashMap<String, GroupData>每次都要装箱，
+ * 这里用开放寻址（线性探测）加并行的long[]保存，add不分配任何对象。
+ * count为0的槽位表示空位，插入过的span的count至少为1
+ */
+public class SpanAggregator {
+
+    private static final int DEFAULT_CAPACITY = 1024;
+
+    private long[] spans;
+    private long[] counts;
+    private long[] sums1;
+    private long[] sums2;
+    private long[] sums3;
+    private long[] sums4;
+    private int mask;
+    private int size;
+
+    public SpanAggregator() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param expectedSpans 预计的span数量，避免扩容
+     */
+    public SpanAggregator(int expectedSpans) {
+        allocate(tableSizeFor(Math.max(expectedSpans, 16) * 2));
+    }
+
+    /**
+     * 累加一行
+     */
+    public void add(long span, Signature128 sign) {
+        long hi = sign.getHi();
+        long lo = sign.getLo();
+        int slot = slotFor(span);
+        counts[slot]++;
+        sums1[slot] += hi >>> 32;
+        sums2[slot] += hi & 0xFFFFFFFFL;
+        sums3[slot] += lo >>> 32;
+        sums4[slot] += lo & 0xFFFFFFFFL;
+    }
+
+    /**
+     * 合并另一个汇总表，用于把分块计算的结果合成整张表的结果
+     */
+    public void merge(SpanAggregator other) {
+        for (int i = 0; i < other.counts.length; i++) {
+            if (other.counts[i] == 0) {
+                continue;
+            }
+            int slot = slotFor(other.spans[i]);
+            counts[slot] += other.counts[i];
+            sums1[slot] += other.sums1[i];
+            sums2[slot] += other.sums2[i];
+            sums3[slot] += other.sums3[i];
+            sums4[slot] += other.sums4[i];
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * 两边汇总不一致的span（只在一边存在的span也算），结果升序排列，可以直接用Arrays.binarySearch查找
+     */
+    public long[] diffSpans(SpanAggregator other) {
+        long[] result = new long[16];
+        int n = 0;
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] == 0) {
+                continue;
+            }
+            int j = other.find(spans[i]);
+            if (j < 0 || !sameSums(i, other, j)) {
+                if (n == result.length) result = Arrays.copyOf(result, n << 1);
+                result[n++] = spans[i];
+            }
+        }
+        for (int j = 0; j < other.counts.length; j++) {
+            if (other.counts[j] != 0 && find(other.spans[j]) < 0) {
+                if (n == result.length) result = Arrays.copyOf(result, n << 1);
+                result[n++] = other.spans[j];
+            }
+        }
+        result = Arrays.copyOf(result, n);
+        Arrays.sort(result);
+        return result;
+    }
+
+    /**
+     * 转换为HashSummaryTable，只在需要和服务端的汇总结果对接时使用
+     * @param spanKeySize span的十六进制位数
+     */
+    public List<HashSummaryTable> toSummaryList(int spanKeySize) {
+        List<HashSummaryTable> result = new ArrayList<>(size);
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] == 0) {
+                continue;
+            }
+            result.add(HashSummaryTable.builder()
+                    .span(Signature128.spanToHex(spans[i], spanKeySize))
+                    .count(counts[i])
+                    .sumPart1(sums1[i])
+                    .sumPart2(sums2[i])
+                    .sumPart3(sums3[i])
+                    .sumPart4(sums4[i])
+                    .build());
+        }
+        return result;
+    }
+
+    private boolean sameSums(int i, SpanAggregator other, int j) {
+        return counts[i] == other.counts[j]
+                && sums1[i] == other.sums1[j]
+                && sums2[i] == other.sums2[j]
+                && sums3[i] == other.sums3[j]
+                && sums4[i] == other.sums4[j];
+    }
+
+    /**
+     * 查找span所在槽位，不存在时返回-1
+     */
+    private int find(long span) {
+        int slot = mix(span) & mask;
+        while (counts[slot] != 0) {
+            if (spans[slot] == span) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * 查找或占用span的槽位
+     */
+    private int slotFor(long span) {
+        int slot = mix(span) & mask;
+        while (counts[slot] != 0) {
+            if (spans[slot] == span) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        // 新span，负载超过一半时先扩容再重新定位
+        if ((size + 1) << 1 > spans.length) {
+            rehash();
+            return slotFor(span);
+        }
+        spans[slot] = span;
+        size++;
+        return slot;
+    }
+
+    private void rehash() {
+        long[] oldSpans = spans;
+        long[] oldCounts = counts;
+        long[] oldSums1 = sums1;
+        long[] oldSums2 = sums2;
+        long[] oldSums3 = sums3;
+        long[] oldSums4 = sums4;
+
+        allocate(oldSpans.length << 1);
+        for (int i = 0; i < oldSpans.length; i++) {
+            if (oldCounts[i] == 0) {
+                continue;
+            }
+            int slot = mix(oldSpans[i]) & mask;
+            while (counts[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            spans[slot] = oldSpans[i];
+            counts[slot] = oldCounts[i];
+            sums1[slot] = oldSums1[i];
+            sums2[slot] = oldSums2[i];
+            sums3[slot] = oldSums3[i];
+            sums4[slot] = oldSums4[i];
+            size++;
+        }
+    }
+
+    private void allocate(int capacity) {
+        spans = new long[capacity];
+        counts = new long[capacity];
+        sums1 = new long[capacity];
+        sums2 = new long[capacity];
+        sums3 = new long[capacity];
+        sums4 = new long[capacity];
+        mask = capacity - 1;
+        size = 0;
+    }
+
+    /**
+     * span位数较少时高位全是0，先打散再取低位
+     */
+    private static int mix(long span) {
+        long h = span * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private static int tableSizeFor(int capacity) {
+        int n = Integer.highestOneBit(Math.max(capacity - 1, 1)) << 1;
+        return Math.min(n, 1 << 30);
+    }
+}
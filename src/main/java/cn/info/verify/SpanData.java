@@ -9,11 +9,11 @@ import java.util.Set;
 @Setter
 @Getter
 public class SpanData {
-    private List<String[]> rowData;
+    private List<RowSignature> rowData;
     private Set<RowSignature> signatures;
 
     // 构造函数、getter/setter
-    public SpanData(List<String[]> rowData, Set<RowSignature> signatures) {
+    public SpanData(List<RowSignature> rowData, Set<RowSignature> signatures) {
         this.rowData = rowData;
         this.signatures = signatures;
     }
@@ -0,0 +1,110 @@
+package cn.info.verify;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * 根据表的行数选择span位数（pk_hash的十六进制前缀长度）
+ * 固定的span位数对小表来说几乎每行一个span，对大表来说每个span太大，一旦不一致就要拉取大量的行。
+ * 这里按“每个span大约多少行”的目标值计算，两边取行数较大的一边，保证两边使用同一个值
+ */
+public final class SpanSizing {
+
+    public static final String AUTO = "auto";
+    public static final long DEFAULT_ROWS_PER_SPAN = 64;
+    public static final int MIN_SPAN_KEY_SIZE = 2;
+    public static final int MAX_SPAN_KEY_SIZE = 16;
+
+    private static final String TABLE_ROWS = """
+        SELECT TABLE_ROWS FROM INFORMATION_SCHEMA.TABLES
+            WHERE TABLE_SCHEMA = ? AND TABLE_NAME = ?
+    """;
+
+    private SpanSizing() {
+    }
+
+    /**
+     * 解析span_key_size选项
+     * @param option 整数时检查后直接使用；"auto"或null时根据两张表的行数计算
+     * @param rowsPerSpan 每个span的目标行数
+     * @throws IllegalArgumentException 指定的值不是MIN_SPAN_KEY_SIZE到MAX_SPAN_KEY_SIZE之间的偶数
+     */
+    public static int resolve(Object option, long rowsPerSpan,
+                              Connection conn1, String table1, Connection conn2, String table2) throws SQLException {
+        if (option instanceof Number number) {
+            return validate(number.intValue());
+        }
+        if (option != null && !AUTO.equalsIgnoreCase(option.toString())) {
+            try {
+                return validate(Integer.parseInt(option.toString().trim()));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("span_key_size must be an even number or \"auto\", got: " + option, e);
+            }
+        }
+        long rows = Math.max(estimateRows(conn1, table1), estimateRows(conn2, table2));
+        return chooseSpanKeySize(rows, rowsPerSpan);
+    }
+
+    /**
+     * 检查指定的span位数：服务端的span列是binary(n/2)，UNHEX和Signature128.span都按整字节处理，
+     * 所以只能是偶数，且不超过pk_hash的前8个字节
+     */
+    public static int validate(int spanKeySize) {
+        if (spanKeySize < MIN_SPAN_KEY_SIZE || spanKeySize > MAX_SPAN_KEY_SIZE || (spanKeySize & 1) == 1) {
+            throw new IllegalArgumentException(String.format("span_key_size must be an even number between %d and %d, got: %d",
+                    MIN_SPAN_KEY_SIZE, MAX_SPAN_KEY_SIZE, spanKeySize));
+        }
+        return spanKeySize;
+    }
+
+    /**
+     * 计算span位数：span数量 16^n 至少要达到 rows / rowsPerSpan。
+     * 服务端的span列是binary(n/2)，所以结果取偶数
+     */
+    public static int chooseSpanKeySize(long rows, long rowsPerSpan) {
+        long spans = Math.max(1, (rows + Math.max(rowsPerSpan, 1) - 1) / Math.max(rowsPerSpan, 1));
+        int size = 0;
+        while (size < MAX_SPAN_KEY_SIZE && (size == 0 || spans > (1L << (size << 2)))) {
+            size++;
+        }
+        if ((size & 1) == 1) {
+            size++;
+        }
+        return Math.min(MAX_SPAN_KEY_SIZE, Math.max(MIN_SPAN_KEY_SIZE, size));
+    }
+
+    /**
+     * 估算表的行数，优先使用INFORMATION_SCHEMA.TABLES中的统计值，没有统计值时再执行COUNT(*)
+     * @param table 表名，可以带库名（db.table）
+     */
+    public static long estimateRows(Connection conn, String table) throws SQLException {
+        String schema = conn.getCatalog();
+        String name = table;
+        int dot = table.indexOf('.');
+        if (dot > 0) {
+            schema = table.substring(0, dot);
+            name = table.substring(dot + 1);
+        }
+
+        try (PreparedStatement statement = conn.prepareStatement(TABLE_ROWS)) {
+            statement.setString(1, schema);
+            statement.setString(2, name);
+            try (ResultSet rs = statement.executeQuery()) {
+                if (rs.next()) {
+                    long rows = rs.getLong(1);
+                    if (!rs.wasNull() && rows > 0) {
+                        return rows;
+                    }
+                }
+            }
+        }
+
+        try (Statement statement = conn.createStatement();
+             ResultSet rs = statement.executeQuery("SELECT COUNT(*) FROM " + table)) {
+            return rs.next() ? rs.getLong(1) : 0;
+        }
+    }
+}
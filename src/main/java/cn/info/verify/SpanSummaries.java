@@ -0,0 +1,106 @@
+package cn.info.verify;
+
+import org.apache.commons.lang3.tuple.ImmutablePair;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 服务端span汇总的读取和比较
+ * 原来每个span的汇总是String[]，放进HashSet<String[]>时按引用比较，两边永远没有相同的span，
+ * 任何一张表checksum不一致都会对全部span做明细比较。
+ * 这里把汇总读成HashSummaryTable（按值比较），两边按span排序后归并，只返回真正不一致的span
+ */
+public final class SpanSummaries {
+
+    private static final Comparator<HashSummaryTable> BY_SPAN = Comparator.comparing(HashSummaryTable::getSpan);
+
+    private SpanSummaries() {
+    }
+
+    /**
+     * 读取汇总查询的结果，列依次为 span, cnt, sum1, sum2, sum3, sum4
+     * @return 按span升序排列
+     */
+    public static List<HashSummaryTable> read(ResultSet resultSet) throws SQLException {
+        List<HashSummaryTable> summaries = new ArrayList<>();
+        while (resultSet.next()) {
+            summaries.add(HashSummaryTable.builder()
+                    .span(resultSet.getString(1))
+                    .count(resultSet.getLong(2))
+                    .sumPart1(resultSet.getLong(3))
+                    .sumPart2(resultSet.getLong(4))
+                    .sumPart3(resultSet.getLong(5))
+                    .sumPart4(resultSet.getLong(6))
+                    .build());
+        }
+        summaries.sort(BY_SPAN);
+        return summaries;
+    }
+
+    /**
+     * 合并分区间得到的汇总，同一个span的行数和四段求和分别相加
+     * @return 按span升序排列
+     */
+    public static List<HashSummaryTable> merge(List<List<HashSummaryTable>> parts) {
+        if (parts.size() == 1) {
+            return parts.get(0);
+        }
+        Map<String, HashSummaryTable> merged = new TreeMap<>();
+        for (List<HashSummaryTable> part : parts) {
+            for (HashSummaryTable summary : part) {
+                merged.merge(summary.getSpan(), summary, (a, b) -> HashSummaryTable.builder()
+                        .span(a.getSpan())
+                        .count(a.getCount() + b.getCount())
+                        .sumPart1(a.getSumPart1() + b.getSumPart1())
+                        .sumPart2(a.getSumPart2() + b.getSumPart2())
+                        .sumPart3(a.getSumPart3() + b.getSumPart3())
+                        .sumPart4(a.getSumPart4() + b.getSumPart4())
+                        .build());
+            }
+        }
+        return new ArrayList<>(merged.values());
+    }
+
+    /**
+     * 归并两边按span升序排列的汇总
+     * @return left：第一侧存在且与第二侧不一致的span，right：第二侧存在且与第一侧不一致的span；
+     *         两边都出现的span是内容变化，只出现在一边的是多出来的行
+     */
+    public static ImmutablePair<List<String>, List<String>> diff(List<HashSummaryTable> summaries1,
+                                                               List<HashSummaryTable> summaries2) {
+        List<String> diff1 = new ArrayList<>();
+        List<String> diff2 = new ArrayList<>();
+        int i = 0;
+        int j = 0;
+        while (i < summaries1.size() || j < summaries2.size()) {
+            int cmp;
+            if (i == summaries1.size()) {
+                cmp = 1;
+            } else if (j == summaries2.size()) {
+                cmp = -1;
+            } else {
+                cmp = summaries1.get(i).getSpan().compareTo(summaries2.get(j).getSpan());
+            }
+
+            if (cmp < 0) {
+                diff1.add(summaries1.get(i++).getSpan());
+            } else if (cmp > 0) {
+                diff2.add(summaries2.get(j++).getSpan());
+            } else {
+                HashSummaryTable sum1 = summaries1.get(i++);
+                HashSummaryTable sum2 = summaries2.get(j++);
+                if (!sum1.equals(sum2)) {
+                    diff1.add(sum1.getSpan());
+                    diff2.add(sum2.getSpan());
+                }
+            }
+        }
+        return new ImmutablePair<>(diff1, diff2);
+    }
+}
@@ -0,0 +1,190 @@
+package cn.info.verify;
+
+import org.apache.commons.lang3.tuple.ImmutablePair;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * span的分层汇总（Merkle树）
+ * span汇总（行数加四段求和）是可加的，父前缀的汇总等于所有子前缀汇总之和，
+ * 所以可以把span的十六进制前缀看成一棵树：先比较根，再逐层只展开汇总不一致的前缀，
+ * 直到span本身。少量行不一致时每层只需要传输几个前缀下的汇总，而不是整张表每个span一行
+ */
+public final class SpanTree {
+
+    /**
+     * 每层展开的十六进制位数，2位即每个节点256个子节点
+     */
+    public static final int DEFAULT_LEVEL_DIGITS = 2;
+
+    private SpanTree() {
+    }
+
+    /**
+     * 某一侧的汇总来源
+     */
+    @FunctionalInterface
+    public interface Source {
+        /**
+         * 按前prefixLength位十六进制前缀汇总
+         * @param prefixLength 前缀位数，0表示整张表
+         * @param parents 只汇总这些上一层前缀下面的span；根节点时为一个空字符串
+         * @return 前缀 -> 汇总，HashSummaryTable的span字段就是前缀
+         */
+        Map<String, HashSummaryTable> summarize(int prefixLength, Collection<String> parents) throws SQLException;
+    }
+
+    /**
+     * 从根开始逐层比较两边的汇总，返回不一致的span
+     * @param spanKeySize span的十六进制位数，即树的叶子层
+     * @param levelDigits 每层展开的位数
+     * @return left：第一侧存在且不一致的span，right：第二侧存在且不一致的span，
+     *         与平铺比较时两边各自的差集含义相同
+     */
+    public static ImmutablePair<Set<String>, Set<String>> diffSpans(Source source1, Source source2,
+                                                                  int spanKeySize, int levelDigits) throws SQLException {
+        if (levelDigits <= 0) {
+            throw new IllegalArgumentException("每层展开的位数必须大于0: " + levelDigits);
+        }
+        Set<String> diff1 = new TreeSet<>();
+        Set<String> diff2 = new TreeSet<>();
+
+        Collection<String> pending = List.of("");
+        int prefixLength = 0;
+        while (!pending.isEmpty()) {
+            Map<String, HashSummaryTable> level1 = source1.summarize(prefixLength, pending);
+            Map<String, HashSummaryTable> level2 = source2.summarize(prefixLength, pending);
+            boolean leaf = prefixLength == spanKeySize;
+
+            Set<String> prefixes = new TreeSet<>(level1.keySet());
+            prefixes.addAll(level2.keySet());
+            List<String> next = new ArrayList<>();
+            for (String prefix : prefixes) {
+                HashSummaryTable sum1 = level1.get(prefix);
+                HashSummaryTable sum2 = level2.get(prefix);
+                if (sum1 != null && sum1.equals(sum2)) {
+                    continue;
+                }
+                if (!leaf) {
+                    next.add(prefix);
+                    continue;
+                }
+                if (sum1 != null) {
+                    diff1.add(prefix);
+                }
+                if (sum2 != null) {
+                    diff2.add(prefix);
+                }
+            }
+            if (leaf) {
+                break;
+            }
+            pending = next;
+            prefixLength = Math.min(prefixLength + levelDigits, spanKeySize);
+        }
+        return new ImmutablePair<>(diff1, diff2);
+    }
+
+    /**
+     * 在服务端比较表（compare_<table>）上按前缀汇总
+     * span列是binary(n/2)，前缀条件换算成span的区间，可以使用span_key索引
+     */
+    public static class SqlSource implements Source {
+
+        private static final int MAX_PARENTS_PER_QUERY = 500;
+
+        private static final String SUM_PREFIX = """
+            SELECT LEFT(HEX(span), %d) AS prefix, COUNT(*) AS cnt,
+                SUM(CONV(SUBSTRING(HEX(compare_sign),1,8),16,10)) AS sum1,
+                SUM(CONV(SUBSTRING(HEX(compare_sign),9,8),16,10)) AS sum2,
+                SUM(CONV(SUBSTRING(HEX(compare_sign),17,8),16,10)) AS sum3,
+                SUM(CONV(SUBSTRING(HEX(compare_sign),25,8),16,10)) AS sum4
+            FROM %s.%s
+            %s
+            GROUP BY prefix
+        """;
+
+        private final Connection conn;
+        private final String dbName;
+        private final String compareTblName;
+        private final int spanKeySize;
+
+        public SqlSource(Connection conn, String dbName, String compareTblName, int spanKeySize) {
+            this.conn = conn;
+            this.dbName = dbName;
+            this.compareTblName = compareTblName;
+            this.spanKeySize = spanKeySize;
+        }
+
+        @Override
+        public Map<String, HashSummaryTable> summarize(int prefixLength, Collection<String> parents) throws SQLException {
+            Map<String, HashSummaryTable> result = new HashMap<>();
+            List<String> batch = new ArrayList<>(Math.min(parents.size(), MAX_PARENTS_PER_QUERY));
+            for (String parent : new LinkedHashSet<>(parents)) {
+                if (parent.isEmpty()) {
+                    // 根节点，不需要条件
+                    query(prefixLength, "", result);
+                    continue;
+                }
+                batch.add(parent);
+                if (batch.size() == MAX_PARENTS_PER_QUERY) {
+                    query(prefixLength, rangeCondition(batch), result);
+                    batch.clear();
+                }
+            }
+            if (!batch.isEmpty()) {
+                query(prefixLength, rangeCondition(batch), result);
+            }
+            return result;
+        }
+
+        private void query(int prefixLength, String whereClause, Map<String, HashSummaryTable> result) throws SQLException {
+            String sql = String.format(SUM_PREFIX, prefixLength, dbName, compareTblName, whereClause);
+            try (PreparedStatement statement = conn.prepareStatement(sql);
+                 ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    String prefix = rs.getString(1);
+                    result.put(prefix, HashSummaryTable.builder()
+                            .span(prefix)
+                            .count(rs.getLong(2))
+                            .sumPart1(rs.getLong(3))
+                            .sumPart2(rs.getLong(4))
+                            .sumPart3(rs.getLong(5))
+                            .sumPart4(rs.getLong(6))
+                            .build());
+                }
+            }
+        }
+
+        /**
+         * 前缀p对应span区间[p00..0, pFF..F]，前缀都来自HEX()的结果，只含十六进制字符
+         */
+        private String rangeCondition(List<String> prefixes) {
+            StringBuilder where = new StringBuilder("WHERE ");
+            for (int i = 0; i < prefixes.size(); i++) {
+                String prefix = prefixes.get(i);
+                if (i > 0) {
+                    where.append(" OR ");
+                }
+                where.append("span BETWEEN UNHEX('").append(pad(prefix, '0'))
+                        .append("') AND UNHEX('").append(pad(prefix, 'F')).append("')");
+            }
+            return where.toString();
+        }
+
+        private String pad(String prefix, char c) {
+            return prefix + String.valueOf(c).repeat(Math.max(0, spanKeySize - prefix.length()));
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package cn.info.verify;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * 全表扫描等大结果集的流式读取
+ * MySQL Connector/J默认把整个结果集读到客户端内存，setFetchSize(100)这类设置会被忽略。
+ * 连接URL开启了useCursorFetch（MyConnection.setCursorFetch）时使用服务端游标，每次取回CURSOR_FETCH_SIZE行；
+ * 否则逐行流式读取（fetchSize为Integer.MIN_VALUE）。两种方式客户端内存都不随表的大小增长。
+ * 逐行流式读取时，结果集关闭前同一个连接不能执行其他语句，所以这里创建的语句要在读完后立即关闭，
+ * 分块和并行扫描时每个区间各用一条语句，两边各用自己的连接
+ */
+public final class StreamingReads {
+
+    public static final int CURSOR_FETCH_SIZE = 1000;
+
+    private StreamingReads() {
+    }
+
+    public static PreparedStatement prepare(Connection conn, String sql) throws SQLException {
+        PreparedStatement statement = conn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        statement.setFetchSize(fetchSize(conn));
+        return statement;
+    }
+
+    public static Statement create(Connection conn) throws SQLException {
+        Statement statement = conn.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        statement.setFetchSize(fetchSize(conn));
+        return statement;
+    }
+
+    private static int fetchSize(Connection conn) throws SQLException {
+        String url = conn.getMetaData().getURL();
+        boolean cursorFetch = url != null && url.toLowerCase().contains("usecursorfetch=true");
+        return cursorFetch ? CURSOR_FETCH_SIZE : Integer.MIN_VALUE;
+    }
+}
@@ -0,0 +1,88 @@
+package cn.info.verify;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+/**
+ * 按线程缓冲标准输出
+ * 并发校验多张表时，dbCompareUtils和Reporter都直接打印到System.out，输出会交错在一起。
+ * install之后，调用了begin的线程的输出先写入该线程自己的缓冲区，end时取出，
+ * 由调度线程按表的顺序整体打印；没有调用begin的线程照常输出
+ */
+public final class ThreadOutput extends OutputStream {
+
+    private static final ThreadLocal<ByteArrayOutputStream> BUFFER = new ThreadLocal<>();
+
+    private static PrintStream original;
+    private static int installed;
+
+    private final PrintStream target;
+
+    private ThreadOutput(PrintStream target) {
+        this.target = target;
+    }
+
+    /**
+     * 替换System.out，可以嵌套调用，与uninstall成对使用
+     */
+    public static synchronized void install() {
+        if (installed++ == 0) {
+            original = System.out;
+            System.setOut(new PrintStream(new ThreadOutput(original), true));
+        }
+    }
+
+    public static synchronized void uninstall() {
+        if (installed > 0 && --installed == 0) {
+            System.out.flush();
+            System.setOut(original);
+            original = null;
+        }
+    }
+
+    /**
+     * 当前线程开始缓冲输出
+     */
+    public static void begin() {
+        BUFFER.set(new ByteArrayOutputStream());
+    }
+
+    /**
+     * 当前线程结束缓冲，返回缓冲的内容
+     */
+    public static byte[] end() {
+        System.out.flush();
+        ByteArrayOutputStream buffer = BUFFER.get();
+        BUFFER.remove();
+        return buffer == null ? new byte[0] : buffer.toByteArray();
+    }
+
+    @Override
+    public void write(int b) {
+        ByteArrayOutputStream buffer = BUFFER.get();
+        if (buffer != null) {
+            buffer.write(b);
+        } else {
+            target.write(b);
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        ByteArrayOutputStream buffer = BUFFER.get();
+        if (buffer != null) {
+            buffer.write(b, off, len);
+        } else {
+            target.write(b, off, len);
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (BUFFER.get() == null) {
+            target.flush();
+        }
+    }
+}
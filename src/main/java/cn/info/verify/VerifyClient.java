@@ -2,22 +2,74 @@ package cn.info.verify;
 
 import org.springframework.stereotype.Component;
 
-import java.nio.charset.Charset;
-import java.nio.charset.StandardCharsets;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import javax.sql.DataSource;
 import java.sql.*;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.function.Consumer;
 
 @Component
 public class VerifyClient {
 
-    private static final char[] HEX_ARRAY = "0123456789abcdef".toCharArray();
-    private static final Charset UTF_8 = StandardCharsets.UTF_8;
     private static final List<String> PRIMARY_KEYS = new ArrayList<>();
     private static final List<String> COMPARE_COLUMNS = new ArrayList<>();
-    private static final int SPAN_KEY_SIZE = 16; // 16位，取MD5的前2个字节
+
+    // 行哈希算法，默认MD5；两边都在客户端计算，可以换成murmur3提高吞吐
+    private RowHasher rowHasher = RowHasher.md5();
+
+    // span位数（十六进制），为SpanSizing.AUTO时按两张表的行数自动计算
+    private Object spanKeySize = SpanSizing.AUTO;
+    private long rowsPerSpan = SpanSizing.DEFAULT_ROWS_PER_SPAN;
+
+    // 流式校验时按主键切分区间，每个区间的目标行数、分页大小和并行扫描的连接数
+    private long chunkRows = ChunkPlanner.DEFAULT_CHUNK_ROWS;
+    private int pageSize = KeysetScanner.DEFAULT_PAGE_SIZE;
+    private int parallelism = 4;
+    // 流式校验的预检查按主键区间计算校验和，只扫描不一致的区间，否则对整张表CHECKSUM TABLE
+    private boolean checksumChunks;
+    // 设置后差异记录和修复语句写入文件，返回值只有条数和文件路径
+    private DiffSink diffSink;
+
+    public void setRowHasher(RowHasher rowHasher) {
+        this.rowHasher = Objects.requireNonNull(rowHasher);
+    }
+
+    public RowHasher getRowHasher() {
+        return rowHasher;
+    }
+
+    /**
+     * @param spanKeySize 固定的span位数（2-16的偶数），或SpanSizing.AUTO
+     */
+    public void setSpanKeySize(Object spanKeySize) {
+        this.spanKeySize = spanKeySize;
+    }
+
+    public void setRowsPerSpan(long rowsPerSpan) {
+        this.rowsPerSpan = rowsPerSpan;
+    }
+
+    public void setChunkRows(long chunkRows) {
+        this.chunkRows = chunkRows;
+    }
+
+    public void setPageSize(int pageSize) {
+        this.pageSize = pageSize;
+    }
+
+    public void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    public void setChecksumChunks(boolean checksumChunks) {
+        this.checksumChunks = checksumChunks;
+    }
+
+    /**
+     * @param diffSink 由调用方创建和关闭，多张表可以共用一个
+     */
+    public void setDiffSink(DiffSink diffSink) {
+        this.diffSink = diffSink;
+    }
 
     /**
      * 验证给定的数据表的数据一致性，并返回sql修复语句
@@ -53,6 +105,14 @@ public class VerifyClient {
             return "Pass";
         }
 
+        int spanKeySize = resolveSpanKeySize(conn1, conn2, table1, table2);
+
+        // 全表扫描流式读取，两张表在各自的连接上
+        statement1.close();
+        statement2.close();
+        statement1 = StreamingReads.create(conn1);
+        statement2 = StreamingReads.create(conn2);
+
         String sql1 = "select * from %s".formatted(table1);
         ResultSet resultSet1 = statement1.executeQuery(sql1);
 
@@ -61,7 +121,6 @@ public class VerifyClient {
 
         //取数据,并将数据处理成compareTable的格式（大数据量的话这会不会很慢呢,而且会占用很多内存
 
-        List<Map<String, Object>> allMaps = new ArrayList<>();
         //拿列名
         ResultSetMetaData metaData = resultSet1.getMetaData(); //获取列集
         int columnCount = metaData.getColumnCount(); //获取列的数量
@@ -70,45 +129,24 @@ public class VerifyClient {
             COMPARE_COLUMNS.add(i-1,metaData.getColumnName(i));
         }
 
-        //这里可以考虑先批量处理map1再addAll
+        // 读取的同时按列类型编码并计算哈希，生产表的行数据在生成修复语句时再按主键分批取回
+        int[] pkIndexes = resolveColumns(resultSet1);
+        RowEncoder rowEncoder = RowEncoder.forColumns(metaData);
+        RowEncoder pkEncoder = RowEncoder.forColumns(metaData, pkIndexes);
+        List<CompareTable> compareTableList1 = new ArrayList<>();
         while (resultSet1.next()) {
-            Map<String,Object> map1 = new HashMap<>((int)(columnCount / 0.75f) + 1);
-            for(int i = 1 ;i<=columnCount;i++){
-                map1.put(COMPARE_COLUMNS.get(i-1),resultSet1.getString(i));
-            }
-            allMaps.add(map1);
+            compareTableList1.add(toCompareTable(resultSet1, rowEncoder, pkEncoder, pkIndexes, spanKeySize));
         }
-        List<Map<String,Object>> list1 = new ArrayList<>(allMaps);
-        // 并行转换
-        List<CompareTable> compareTableList1 = allMaps.parallelStream()
-                .map(this::transForm)
-                .toList();
-
-        allMaps.clear();
-        //List<CompareTable> compareTableList1 = new ArrayList<>(transformedList);
 
-        //不需要获取list2的原数据
-        //List<Map<String,Object>> list2 = new ArrayList<>();
+        //不需要获取list2的原数据，直接计算哈希
         metaData = resultSet2.getMetaData(); //获取列集
-        columnCount = metaData.getColumnCount(); //获取列的数量
+        pkIndexes = resolveColumns(resultSet2);
+        rowEncoder = RowEncoder.forColumns(metaData);
+        pkEncoder = RowEncoder.forColumns(metaData, pkIndexes);
+        List<CompareTable> compareTableList2 = new ArrayList<>();
         while (resultSet2.next()) {
-            Map<String,Object> map2 = new HashMap<>();
-            for(int i = 1 ;i<=columnCount;i++){
-                map2.put(COMPARE_COLUMNS.get(i-1),resultSet2.getString(i));
-            }
-            allMaps.add(map2);
+            compareTableList2.add(toCompareTable(resultSet2, rowEncoder, pkEncoder, pkIndexes, spanKeySize));
         }
-        // 并行转换
-        List<CompareTable> compareTableList2 = allMaps.parallelStream()
-                .map(this::transForm)
-                .toList();
-
-        //List<CompareTable> compareTableList2 = new ArrayList<>(transformedList2);
-
-
-        //如果是主键字符串拼接，这里还算比较简单的
-        //Map<String,Map<String,Object>> index1 = createIndex(list1,PRIMARY_KEYS.get(0),map -> (String) map.get(PRIMARY_KEYS.get(0)) );
-        Map<String,Map<String,Object>> index1 = createIndexWithMultiKeys(list1);
 
         //这里假定table1是主库，不关心table2的数据
 //        Map<String,Map<String,Object>> index2 = new HashMap<>();
@@ -122,8 +160,8 @@ public class VerifyClient {
 
         //如果把上面的compareTable插入到数据库里，这里通过order by得到分组结果也是很方便的，后续还有通过span反找compareTableList的pkValue在代码上是简单的
         //这里可以把四个sumPart合起来比较，应该会快一点
-        List<HashSummaryTable> hashSummaryTableList1 = calculateSummary(compareTableList1);
-        List<HashSummaryTable> hashSummaryTableList2 = calculateSummary(compareTableList2);
+        List<HashSummaryTable> hashSummaryTableList1 = calculateSummary(compareTableList1, spanKeySize);
+        List<HashSummaryTable> hashSummaryTableList2 = calculateSummary(compareTableList2, spanKeySize);
 
         // 计算交集，用set比list求交集快很多
         Set<HashSummaryTable> set1 = new HashSet<>(hashSummaryTableList1);
@@ -140,17 +178,17 @@ public class VerifyClient {
         // 先根据这里找到的span获取原始的pk列表
         Set<String> pkSet1 = new HashSet<>();
         // 创建两个集合的span集合
-        Set<String> compareSpans = new HashSet<>(compareTableList1.size());
-        Map<String, CompareTable> spanToCompareTableMap = new HashMap<>(compareTableList1.size());
+        Set<Long> compareSpans = new HashSet<>(compareTableList1.size());
+        Map<Long, CompareTable> spanToCompareTableMap = new HashMap<>(compareTableList1.size());
         for (CompareTable compareTable : compareTableList1) {
-            String span = compareTable.getSpan();
+            long span = compareTable.getSpan();
             compareSpans.add(span);
             spanToCompareTableMap.put(span, compareTable);
         }
 
         // 只处理存在于两个集合中的span
         for (HashSummaryTable table : in1Not2) {
-            String span = table.getSpan();
+            long span = Signature128.spanFromHex(table.getSpan());
             if (compareSpans.contains(span)) {
                 CompareTable ct = spanToCompareTableMap.get(span);
                 Map<String, Object> pkValues = ct.getPkValues();
@@ -180,14 +218,14 @@ public class VerifyClient {
         compareSpans = new HashSet<>(compareTableList2.size());
         spanToCompareTableMap = new HashMap<>(compareTableList2.size());
         for (CompareTable compareTable : compareTableList2) {
-            String span = compareTable.getSpan();
+            long span = compareTable.getSpan();
             compareSpans.add(span);
             spanToCompareTableMap.put(span, compareTable);
         }
 
         // 只处理存在于两个集合中的span
         for (HashSummaryTable table : in2Not1) {
-            String span = table.getSpan();
+            long span = Signature128.spanFromHex(table.getSpan());
             if (compareSpans.contains(span)) {
                 CompareTable ct = spanToCompareTableMap.get(span);
                 Map<String, Object> pkValues = ct.getPkValues();
@@ -222,81 +260,336 @@ public class VerifyClient {
         Set<String> extra2 = new HashSet<>(pkSet2);
         extra2.removeAll(pkSet1);
 
-        StringBuilder sql = new StringBuilder();
-        //按照pkSet1中的id的行数据对set2的数据执行update操作
-        //这里按这种写法应该有性能和安全问题
-        if(!common.isEmpty()){
-            for(String obj: common){
-                Map<String,Object> map = index1.get(obj);
-                sql.append("UPDATE ").append(table2).append(" SET ");
-                map.forEach((key, value) -> sql.append(key).append(" = '").append(value).append("',"));
-                //删除末尾的逗号
-                sql.deleteCharAt(sql.length()-1);
-                //这种写法只能适配一个主键，如果组合主键的话还要改
-                //sql.append(" WHERE ").append("id").append(" = '").append(obj).append("';");
-                MulQuery(sql, obj);
+        return buildRepairSql(conn1, table1, conn2, table2, common, extra1, extra2);
+    }
+
+    /**
+     * 流式校验，结果与Verify相同
+     * Verify会把两张表所有行的签名读进内存，大表会直接OOM。
+     * 这里边读ResultSet边计算哈希，第一遍扫描只保留每个span的汇总，
+     * 比较汇总后只对不一致的span再扫描一遍，收集其中的行签名，行数据在生成修复语句时再按主键分批取回，
+     * 峰值内存取决于span数量和差异行数，与表的总行数无关
+     * @param conn1 生产数据库
+     * @param conn2 容灾数据库
+     * @param table1 生产表
+     * @param table2 容灾表
+     * @return 修复语句，checksum相同时返回Pass
+     */
+    public String VerifyStreaming(Connection conn1, Connection conn2, String table1, String table2) throws SQLException {
+        return verifyStreaming(conn1, conn2, null, null, table1, table2);
+    }
 
+    /**
+     * 分区间并行的流式校验
+     * 表按主键切分成若干区间，每个区间在dataSource的独立连接上分页扫描，各区间的汇总再合并成整张表的汇总
+     * @param dataSource1 生产数据库
+     * @param dataSource2 容灾数据库
+     */
+    public String VerifyStreaming(DataSource dataSource1, DataSource dataSource2, String table1, String table2) throws SQLException {
+        try (Connection conn1 = dataSource1.getConnection();
+             Connection conn2 = dataSource2.getConnection()) {
+            return verifyStreaming(conn1, conn2, dataSource1, dataSource2, table1, table2);
+        }
+    }
+
+    /**
+     * @param dataSource1 为null时所有区间都在conn1上依次扫描
+     * @param dataSource2 为null时所有区间都在conn2上依次扫描
+     */
+    private String verifyStreaming(Connection conn1, Connection conn2, DataSource dataSource1, DataSource dataSource2,
+                                   String table1, String table2) throws SQLException {
+
+        PRIMARY_KEYS.clear();
+        COMPARE_COLUMNS.clear();
+
+        //拿主键
+        DatabaseMetaData dbMetaData = conn1.getMetaData();
+        try (ResultSet set = dbMetaData.getPrimaryKeys(conn1.getCatalog(), conn1.getSchema(), table1)) {
+            while (set.next()) {
+                PRIMARY_KEYS.add(set.getString("COLUMN_NAME"));
             }
         }
-        //执行insert
-        if(!extra1.isEmpty()){
-            sql.append("INSERT INTO ").append(table2).append(" (");
-            StringBuilder keySql = new StringBuilder();
-            StringBuilder valueSql = new StringBuilder();
-            Map<String, Object> map;
-
-            //先拼接列名
-            String str = extra1.iterator().next();
-            map = index1.get(str);
-            map.forEach((key,value) -> keySql.append(key).append(","));
-            // 删除末尾多余的逗号
-            if (!keySql.isEmpty()) {
-                keySql.deleteCharAt(keySql.length() - 1);
+
+        //判断checksum
+        if (!checksumChunks) {
+            try (Statement statement1 = conn1.createStatement();
+                 Statement statement2 = conn2.createStatement()) {
+                if (CheckSum(statement1, statement2, table1, table2)) {
+                    return "Pass";
+                }
             }
+        }
 
-            sql.append(keySql).append(") VALUES ");
-            //sql.append(String.join(",",COMPARE_COLUMNS)).append(") VALUES ");
+        int spanKeySize = resolveSpanKeySize(conn1, conn2, table1, table2);
 
-            //再拼接values
-            for(String obj: extra1){
-                map = index1.get(obj);
+        // 列名以生产表为准，并行扫描之前先确定下来
+        try (Statement statement = conn1.createStatement();
+             ResultSet resultSet = statement.executeQuery("select * from %s where 1=0".formatted(table1))) {
+            resolveColumns(resultSet);
+        }
 
-                valueSql.append("(");
-                map.forEach((key,value) -> valueSql.append("'").append(value).append("',"));
+        // 按主键切分区间，两边各自抽样；按区间校验时两边只扫描校验和不一致的同一批区间
+        List<KeyRange> ranges1;
+        List<KeyRange> ranges2;
+        if (checksumChunks) {
+            List<KeyRange> ranges = ChunkPlanner.plan(conn1, table1, PRIMARY_KEYS, chunkRows);
+            ranges1 = RangeChecksum.failing(ranges,
+                    RangeChecksum.compute(conn1, table1, COMPARE_COLUMNS, PRIMARY_KEYS, ranges),
+                    RangeChecksum.compute(conn2, table2, COMPARE_COLUMNS, PRIMARY_KEYS, ranges));
+            if (ranges1.isEmpty()) {
+                return "Pass";
+            }
+            ranges2 = ranges1;
+        } else {
+            ranges1 = ChunkPlanner.plan(conn1, table1, PRIMARY_KEYS, chunkRows);
+            ranges2 = ChunkPlanner.plan(conn2, table2, PRIMARY_KEYS, chunkRows);
+        }
+        Debug("# Chunks for %s and %s: %d, %d".formatted(table1, table2, ranges1.size(), ranges2.size()));
+
+        // 第一遍扫描，只保留span汇总，每个区间的汇总扫描完就合并，两边直接比较，不需要转换成HashSummaryTable
+        SpanAggregator summary1 = new SpanAggregator();
+        forEachRange(conn1, dataSource1, ranges1,
+                (conn, range) -> scanSummary(conn, table1, range, spanKeySize), summary1::merge);
+        SpanAggregator summary2 = new SpanAggregator();
+        forEachRange(conn2, dataSource2, ranges2,
+                (conn, range) -> scanSummary(conn, table2, range, spanKeySize), summary2::merge);
+
+        // 两边汇总不一致的span，升序排列
+        long[] diffSpans = summary1.diffSpans(summary2);
+
+        // 第二遍扫描，只保留差异span中的行签名
+        Map<String, Signature128> signs1 = new HashMap<>();
+        Map<String, Signature128> signs2 = new HashMap<>();
+        if (diffSpans.length > 0) {
+            forEachRange(conn1, dataSource1, ranges1,
+                    (conn, range) -> scanSpans(conn, table1, range, diffSpans, spanKeySize), signs1::putAll);
+            forEachRange(conn2, dataSource2, ranges2,
+                    (conn, range) -> scanSpans(conn, table2, range, diffSpans, spanKeySize), signs2::putAll);
+        }
 
-                // 删除末尾多余的逗号
-                if (!valueSql.isEmpty()) {
-                    valueSql.deleteCharAt(valueSql.length() - 1);
+        Set<String> common = new HashSet<>();
+        Set<String> extra1 = new HashSet<>();
+        for (Map.Entry<String, Signature128> entry : signs1.entrySet()) {
+            Signature128 sign2 = signs2.get(entry.getKey());
+            if (sign2 == null) {
+                extra1.add(entry.getKey());
+            } else if (!sign2.equals(entry.getValue())) {
+                common.add(entry.getKey());
+            }
+        }
+        Set<String> extra2 = new HashSet<>(signs2.keySet());
+        extra2.removeAll(signs1.keySet());
+
+        return buildRepairSql(conn1, table1, conn2, table2, common, extra1, extra2);
+    }
+
+    /**
+     * 有dataSource时在独立的连接上并行处理各区间，否则在conn上依次处理；每个区间的结果完成后立即交给combiner
+     */
+    private <T> void forEachRange(Connection conn, DataSource dataSource, List<KeyRange> ranges,
+                                  KeysetScanner.RangeTask<T> task, Consumer<T> combiner) throws SQLException {
+        if (dataSource == null) {
+            KeysetScanner.forEachRange(conn, ranges, task, combiner);
+        } else {
+            KeysetScanner.forEachRange(dataSource, ranges, parallelism, task, combiner);
+        }
+    }
+
+    /**
+     * 第一遍扫描：逐行计算compare_sign和pk_hash，只累加到span分组中
+     */
+    private SpanAggregator scanSummary(Connection conn, String table, KeyRange range, int spanKeySize) throws SQLException {
+        SpanAggregator aggregator = new SpanAggregator();
+        RowCodec codec = new RowCodec();
+
+        KeysetScanner.scan(conn, table, PRIMARY_KEYS, range, pageSize, resultSet -> {
+            codec.bind(resultSet);
+            Signature128 compareSign = codec.rowEncoder.hash(resultSet, rowHasher);
+            Signature128 pkHash = codec.pkEncoder.hash(resultSet, rowHasher);
+            aggregator.add(pkHash.span(spanKeySize), compareSign);
+        });
+        return aggregator;
+    }
+
+    /**
+     * 第二遍扫描：只收集落在diffSpans中的行签名
+     * @param diffSpans 升序排列的span
+     * @return 主键拼接串 -> compare_sign
+     */
+    private Map<String, Signature128> scanSpans(Connection conn, String table, KeyRange range, long[] diffSpans,
+                                                int spanKeySize) throws SQLException {
+        Map<String, Signature128> signs = new HashMap<>();
+        RowCodec codec = new RowCodec();
+
+        KeysetScanner.scan(conn, table, PRIMARY_KEYS, range, pageSize, resultSet -> {
+            codec.bind(resultSet);
+            long span = codec.pkEncoder.hash(resultSet, rowHasher).span(spanKeySize);
+            if (Arrays.binarySearch(diffSpans, span) < 0) {
+                return;
+            }
+
+            StringBuilder pkKey = new StringBuilder();
+            for (int pkIndex : codec.pkIndexes) {
+                if (!pkKey.isEmpty()) {
+                    pkKey.append("|");
                 }
-                valueSql.append("),");
+                pkKey.append(resultSet.getString(pkIndex));
             }
-            if (!valueSql.isEmpty()) {
-                valueSql.deleteCharAt(valueSql.length() - 1);
+            signs.put(pkKey.toString(), codec.rowEncoder.hash(resultSet, rowHasher));
+        });
+        return signs;
+    }
+
+    /**
+     * 一个区间扫描时使用的编码器，分页查询的列都相同，第一行时按结果集元数据创建
+     */
+    private static final class RowCodec {
+        private int[] pkIndexes;
+        private RowEncoder rowEncoder;
+        private RowEncoder pkEncoder;
+
+        void bind(ResultSet resultSet) throws SQLException {
+            if (rowEncoder != null) {
+                return;
             }
+            ResultSetMetaData metaData = resultSet.getMetaData();
+            pkIndexes = resolveColumns(resultSet);
+            rowEncoder = RowEncoder.forColumns(metaData);
+            pkEncoder = RowEncoder.forColumns(metaData, pkIndexes);
+        }
+    }
 
-            sql.append(valueSql).append(";");
+    /**
+     * 记录列名（以生产表为准），并返回主键列在结果集中的下标
+     */
+    private static int[] resolveColumns(ResultSet resultSet) throws SQLException {
+        ResultSetMetaData metaData = resultSet.getMetaData();
+        if (COMPARE_COLUMNS.isEmpty()) {
+            for (int i = 1; i <= metaData.getColumnCount(); i++) {
+                COMPARE_COLUMNS.add(metaData.getColumnName(i));
+            }
+        }
+        int[] pkIndexes = new int[PRIMARY_KEYS.size()];
+        for (int i = 0; i < pkIndexes.length; i++) {
+            pkIndexes[i] = resultSet.findColumn(PRIMARY_KEYS.get(i));
         }
-        //执行delete
-        if(!extra2.isEmpty()){
-            for(String obj: extra2){
-                sql.append("DELETE FROM ").append(table2);
-                //sql.append(" WHERE ").append("id").append(" = '").append(obj).append("';");
-                MulQuery(sql, obj);
+        return pkIndexes;
+    }
+
+    /**
+     * 确定本次校验使用的span位数，两张表使用同一个值，并输出实际使用的值
+     */
+    private int resolveSpanKeySize(Connection conn1, Connection conn2, String table1, String table2) throws SQLException {
+        int size = SpanSizing.resolve(spanKeySize, rowsPerSpan, conn1, table1, conn2, table2);
+        Debug("# Span key size for %s and %s: %d".formatted(table1, table2, size));
+        return size;
+    }
+
+    /**
+     * 由当前行生成CompareTable，compare_sign和pk_hash都由RowEncoder按列类型编码后计算
+     */
+    private CompareTable toCompareTable(ResultSet resultSet, RowEncoder rowEncoder, RowEncoder pkEncoder,
+                                        int[] pkIndexes, int spanKeySize) throws SQLException {
+        // 生成所有字段的compare_sign
+        Signature128 compareSign = rowEncoder.hash(resultSet, rowHasher);
+
+        // 生成主键字段的pk_hash,这个属性后续用不到了
+        Signature128 pkHash = pkEncoder.hash(resultSet, rowHasher);
+
+        // 提取主键字段值
+        Map<String, Object> pkValues = new LinkedHashMap<>();
+        for (int i = 0; i < pkIndexes.length; i++) {
+            pkValues.put(PRIMARY_KEYS.get(i), resultSet.getString(pkIndexes[i]));
+        }
+
+        // 生成span
+        return new CompareTable(compareSign, pkValues, pkHash.span(spanKeySize));
+    }
+
+    /**
+     * 根据主键差异集合拼接修复语句，每条语句一行
+     * 多余的行合并成按主键的DELETE；变更行两边都取回后逐列比较，只UPDATE不同的列；
+     * 缺少的行从生产表取回，合并成多行的INSERT ... ON DUPLICATE KEY UPDATE，每条语句不超过容灾库的max_allowed_packet。
+     * 行数据按主键分批取回，每批生成完修复语句就丢弃。
+     * 设置了diffSink时差异记录和修复语句逐条写入文件，不再拼接成一个字符串，返回条数和文件路径
+     * @param conn1 生产数据库
+     * @param table1 生产表
+     * @param conn2 容灾数据库
+     * @param table2 容灾表
+     * @param common 两边都存在但内容不同的主键，需要update
+     * @param extra1 只在生产表中存在的主键，需要insert
+     * @param extra2 只在容灾表中存在的主键，需要delete
+     */
+    private String buildRepairSql(Connection conn1, String table1, Connection conn2, String table2,
+                                  Set<String> common, Set<String> extra1, Set<String> extra2) throws SQLException {
+        StringBuilder sql = new StringBuilder();
+        Consumer<String> out = diffSink != null ? diffSink::writeRepair : statement -> sql.append(statement).append('\n');
+        RepairSqlWriter writer = new RepairSqlWriter(table2, PRIMARY_KEYS, RepairSqlWriter.maxAllowedPacket(conn2));
+        int batchSize = KeyFetcher.DEFAULT_BATCH_SIZE;
+
+        //执行delete，容灾表只有主键拼接串
+        for (List<String[]> batch : batches(extra2, batchSize)) {
+            writer.writeDeletes(new ArrayList<>(batch), out);
+            writeDiffRecords(DiffSink.EXTRA, batch);
+        }
+
+        //变更行两边都取回逐列比较，只update不同的列
+        for (List<String[]> batch : batches(common, batchSize)) {
+            Map<List<String>, Map<String, Object>> rows1 = KeyFetcher.fetch(conn1, table1, PRIMARY_KEYS, batch, batchSize);
+            Map<List<String>, Map<String, Object>> rows2 = KeyFetcher.fetch(conn2, table2, PRIMARY_KEYS, batch, batchSize);
+            List<RowDiff> updates = new ArrayList<>(rows1.size());
+            for (Map.Entry<List<String>, Map<String, Object>> entry : rows1.entrySet()) {
+                RowDiff diff = RowDiff.compare(entry.getValue(), rows2.get(entry.getKey()), PRIMARY_KEYS);
+                if (diff != null) {
+                    updates.add(diff);
+                }
+            }
+            writer.writeUpdates(updates, out);
+            if (diffSink != null) {
+                for (RowDiff diff : updates) {
+                    diffSink.writeDiff(DiffSink.CHANGED, writer.keyOf(diff.source()), diff.columns());
+                }
             }
         }
-        return sql.toString();
+
+        //按照生产表的行数据执行insert
+        for (List<String[]> batch : batches(extra1, batchSize)) {
+            writer.writeUpserts(new ArrayList<>(KeyFetcher.fetch(conn1, table1, PRIMARY_KEYS, batch, batchSize).values()), out);
+            writeDiffRecords(DiffSink.MISSING, batch);
+        }
+
+        if (diffSink == null) {
+            return sql.toString();
+        }
+        return String.join("\n", diffSink.summary().report());
     }
 
-    private void MulQuery(StringBuilder sql, String obj) {
-        String[] pkValues = obj.split("\\|");
-        StringBuilder whereClause = new StringBuilder(" WHERE ");
-        for (int i = 0; i < PRIMARY_KEYS.size(); i++) {
-            if (i > 0) {
-                whereClause.append(" AND ");
+    /**
+     * 把主键拼接串拆成主键值，按batchSize分批
+     */
+    private static List<List<String[]>> batches(Set<String> keys, int batchSize) {
+        List<List<String[]>> batches = new ArrayList<>();
+        List<String[]> batch = new ArrayList<>(Math.min(keys.size(), batchSize));
+        for (String key : keys) {
+            batch.add(key.split("\\|", -1));
+            if (batch.size() == batchSize) {
+                batches.add(batch);
+                batch = new ArrayList<>(batchSize);
             }
-            whereClause.append(PRIMARY_KEYS.get(i)).append(" = '").append(pkValues[i]).append("'");
         }
-        sql.append(whereClause).append(";");
+        if (!batch.isEmpty()) {
+            batches.add(batch);
+        }
+        return batches;
+    }
+
+    private void writeDiffRecords(String kind, List<String[]> keys) {
+        if (diffSink == null) {
+            return;
+        }
+        for (String[] key : keys) {
+            diffSink.writeDiff(kind, key);
+        }
     }
 
     /**
@@ -319,26 +612,6 @@ public class VerifyClient {
         return "PASS";
     }
 
-    private CompareTable transForm(Map<String, Object> data){
-        try {
-            // 生成所有字段的compare_sign
-            String compareSign = generateCompareSign(data);
-
-            // 生成主键字段的pk_hash,这个属性后续用不到了
-            String pkHash = generatePkHash(data);
-
-            // 提取主键字段值
-            Map<String, Object> pkValues = extractPkValues(data);
-
-            // 生成span
-            String span = pkHash.substring(0, Math.min(SPAN_KEY_SIZE, pkHash.length()));
-            return new CompareTable(compareSign, pkValues, span);
-        } catch (NoSuchAlgorithmException e) {
-            throw new RuntimeException("MD5算法不可用", e);
-        }
-
-    }
-
     /**
      * 判断CheckSum是否相同
      */
@@ -365,102 +638,17 @@ public class VerifyClient {
 
     }
 
-    private static String generateCompareSign(Map<String, Object> data) throws NoSuchAlgorithmException {
-
-        StringBuilder concat = new StringBuilder();
-        for (String column : VerifyClient.COMPARE_COLUMNS) {
-            Object value = data.get(column);
-            if (value != null) {
-                concat.append(value);
-            }
-        }
-        return md5ToHex(concat.toString());
-    }
-
-    private static String md5ToHex(String input){
-        //MessageDigest md = MessageDigest.getInstance("MD5");
-        //用单例模式能更快吗
-        MessageDigest md = MD5_DIGEST.get();
-        byte[] digest = md.digest(input.getBytes(UTF_8));
-        return bytesToHex(digest);
-    }
-
-    // ThreadLocal 缓存 MessageDigest 实例
-    private static final ThreadLocal<MessageDigest> MD5_DIGEST = ThreadLocal.withInitial(() -> {
-        try {
-            return MessageDigest.getInstance("MD5");
-        } catch (NoSuchAlgorithmException e) {
-            throw new RuntimeException(e);
-        }
-    });
-
-    //将原先使用的String.format改为了从字符数组索引，并用位运算计算下标
-    private static String bytesToHex(byte[] bytes) {
-        final int length = bytes.length;
-        final char[] hexChars = new char[length << 1];
-        for (int i = 0; i < length; i++) {
-            hexChars[i << 1] = HEX_ARRAY[(0xF0 & bytes[i]) >>> 4];
-            hexChars[(i << 1) + 1] = HEX_ARRAY[0x0F & bytes[i]];
-        }
-        return new String(hexChars);
-    }
-
-    private static String generatePkHash(Map<String, Object> data)
-            throws NoSuchAlgorithmException {
-
-        StringBuilder concat = new StringBuilder();
-        for (String pk : VerifyClient.PRIMARY_KEYS) {
-            Object value = data.get(pk);
-            if (value != null) {
-                concat.append(value);
-            }
-        }
-
-        return md5ToHex(concat.toString());
-    }
-
-    /**
-     * 提取主键字段值
-     */
-    private static Map<String, Object> extractPkValues(Map<String, Object> data) {
-        Map<String, Object> pkValues = new LinkedHashMap<>();
-        for (String pk : PRIMARY_KEYS) {
-            pkValues.put(pk, data.get(pk));
-        }
-        return pkValues;
-    }
-
-    public static List<HashSummaryTable> calculateSummary(List<CompareTable> compareTableList){
+    public static List<HashSummaryTable> calculateSummary(List<CompareTable> compareTableList, int spanKeySize){
 
-        Map<String, GroupData> groupMap = new HashMap<>();
+        SpanAggregator aggregator = new SpanAggregator();
 
         for (CompareTable compareTable : compareTableList) {
-            String spanHex = compareTable.getSpan();
-            String compareSignHex = compareTable.getCompareSign();
-
-            // 获取或创建分组
-            GroupData group = groupMap.computeIfAbsent(spanHex,
-                    k -> new GroupData(spanHex));
-
-            // 更新分组统计
-            group.incrementCount();
-
-            // 计算四部分的和
-            Long[] parts = splitAndSumHash(compareSignHex);
-            group.addToSums(parts);
+            // 计算四部分的和，直接从摘要的两个long中取，不再经过十六进制字符串
+            aggregator.add(compareTable.getSpan(), compareTable.getCompareSign());
         }
 
         // 转换为HashSummaryTable
-        return groupMap.values().stream()
-                .map(group -> HashSummaryTable.builder()
-                        .span(group.spanHex)
-                        .count(group.count)
-                        .sumPart1(group.sum1)
-                        .sumPart2(group.sum2)
-                        .sumPart3(group.sum3)
-                        .sumPart4(group.sum4)
-                        .build())
-                .collect(Collectors.toList());
+        return aggregator.toSummaryList(spanKeySize);
     }
 
 
@@ -487,48 +675,6 @@ public class VerifyClient {
         return index;
     }
 
-    /**
-     * 将MD5哈希值拆分为四部分并转换为十进制
-     */
-    private static Long[] splitAndSumHash(String md5Hex) {
-        // MD5是32个十六进制字符，分为4部分，每部分8个字符
-        if (md5Hex.length() != 32) {
-            throw new IllegalArgumentException("MD5哈希值必须是32个字符: " + md5Hex);
-        }
-
-        Long[] parts = new Long[4];
-
-        // 直接操作字符数组，避免substring和Long.parseLong
-        char[] chars = md5Hex.toCharArray();
-
-        parts[0] = parseHexChars(chars, 0, 8);
-        parts[1] = parseHexChars(chars, 8, 16);
-        parts[2] = parseHexChars(chars, 16, 24);
-        parts[3] = parseHexChars(chars, 24, 32);
-
-        return parts;
-    }
-
-    private static long parseHexChars(char[] chars, int start, int end) {
-        long result = 0;
-        for (int i = start; i < end; i++) {
-            char c = chars[i];
-            result = (result << 4) | hexCharToInt(c);
-        }
-        return result;
-    }
-
-    private static int hexCharToInt(char c) {
-        if (c >= '0' && c <= '9') {
-            return c - '0';
-        } else if (c >= 'a' && c <= 'f') {
-            return c - 'a' + 10;
-        } else if (c >= 'A' && c <= 'F') {
-            return c - 'A' + 10;
-        }
-        throw new IllegalArgumentException("非十六进制字符: " + c);
-    }
-
     private Map<String, List<String>> getDatabaseObjects(Connection conn, String databaseName) throws SQLException {
         Map<String, List<String>> objects = new HashMap<>();
 
@@ -3,6 +3,7 @@ package cn.info.verify;
 import com.github.difflib.DiffUtils;
 import com.github.difflib.UnifiedDiffUtils;
 import com.github.difflib.patch.Patch;
+import org.apache.commons.lang3.tuple.ImmutablePair;
 import org.springframework.stereotype.Component;
 
 import java.nio.charset.Charset;
@@ -39,10 +40,10 @@ public class VerifyClient1 {
 
     private static final String SUM_TABLE_TEMPLATE = """
         SELECT HEX(span) as span, COUNT(*) as cnt,
-            CONCAT(SUM(CONV(SUBSTRING(HEX(compare_sign),1,8),16,10)),
-            SUM(CONV(SUBSTRING(HEX(compare_sign),9,8),16,10)),
-            SUM(CONV(SUBSTRING(HEX(compare_sign),17,8),16,10)),
-            SUM(CONV(SUBSTRING(HEX(compare_sign),25,8),16,10))) as sig
+            SUM(CONV(SUBSTRING(HEX(compare_sign),1,8),16,10)) as sum1,
+            SUM(CONV(SUBSTRING(HEX(compare_sign),9,8),16,10)) as sum2,
+            SUM(CONV(SUBSTRING(HEX(compare_sign),17,8),16,10)) as sum3,
+            SUM(CONV(SUBSTRING(HEX(compare_sign),25,8),16,10)) as sum4
         FROM %s.%s
         GROUP BY span
     """;
@@ -58,10 +59,6 @@ public class VerifyClient1 {
     """;
 
 
-    private static final String QUERY_COMPARE_SPAN = """
-        SELECT * FROM %s.%s WHERE %s
-    """;
-
     /**
      * 验证给定的数据表的数据一致性，并返回sql修复语句
      * 现在有几个问题：
@@ -114,34 +111,15 @@ public class VerifyClient1 {
 
 
             //顺序可能不重要
-            List<String[]> tbl1Hash = makeSumRows(statement1, conn1.getCatalog(), compareTblName, table1);
-            List<String[]> tbl2Hash = makeSumRows(statement2, conn2.getCatalog(), compareTblName, table2);
-
-            // 计算交集，用set比list求交集快很多
-            Set<String[]> set1 = new HashSet<>(tbl1Hash);
-            Set<String[]> set2 = new HashSet<>(tbl2Hash);
-
-            Set<String[]> same = new HashSet<>(set1);
-            same.retainAll(set2);
+            List<HashSummaryTable> tbl1Hash = makeSumRows(statement1, conn1.getCatalog(), compareTblName, table1);
+            List<HashSummaryTable> tbl2Hash = makeSumRows(statement2, conn2.getCatalog(), compareTblName, table2);
 
-            // 计算仅在set1中的元素
-            Set<String[]> in1Not2 = new HashSet<>(set1);
-            in1Not2.removeAll(same);
+            // 按span归并两边的汇总，只保留汇总不一致的span
+            ImmutablePair<List<String>, List<String>> spanDiffs = SpanSummaries.diff(tbl1Hash, tbl2Hash);
+            List<String> tableDiffs1 = spanDiffs.getLeft();
+            List<String> tableDiffs2 = spanDiffs.getRight();
 
-            // 计算仅在set2中的元素
-            Set<String[]> in2Not1 = new HashSet<>(set2);
-            in2Not1.removeAll(same);
-
-            if(!in1Not2.isEmpty() || !in2Not1.isEmpty() ){
-                List<String> tableDiffs1 = new ArrayList<>();
-                List<String> tableDiffs2 = new ArrayList<>();
-                for(String[] str : in1Not2){
-                    tableDiffs1.add(str[0]);
-                }
-
-                for(String[] str : in2Not1){
-                    tableDiffs2.add(str[0]);
-                }
+            if(!tableDiffs1.isEmpty() || !tableDiffs2.isEmpty() ){
 
                 Set<String> common = new HashSet<>(tableDiffs1);
                 Set<String> extra2 = new HashSet<>(tableDiffs2);
@@ -169,22 +147,21 @@ public class VerifyClient1 {
 
                 if(common.size() > 0){
                     for(String str: common){
-                        try(PreparedStatement statement = conn1.prepareStatement(String.format(DIFF_COMPARE,dbName1,compareTblName,str));){
-                            statement.setFetchSize(100);
-                            statement.setFetchDirection(ResultSet.FETCH_FORWARD);
+                        try(PreparedStatement statement = StreamingReads.prepare(conn1, String.format(DIFF_COMPARE,dbName1,compareTblName,str));){
                             try(ResultSet resultSet = statement.executeQuery();){
-                                List<String[]> spanRowList = new ArrayList<>();
+                                List<RowSignature> spanRowList = new ArrayList<>();
                                 Set<RowSignature> cmpSigns = new HashSet<>();
                                 while(resultSet.next()){
-                                    String[] spanRow = new String[3+PRIMARY_KEYS.size()];
-                                    for(int i =1; i<=3+PRIMARY_KEYS.size();i++){
-                                        spanRow[i-1] = resultSet.getString(i);
+                                    String[] pkValues = new String[PRIMARY_KEYS.size()];
+                                    for(int i = 0; i < PRIMARY_KEYS.size(); i++){
+                                        pkValues[i] = resultSet.getString(4 + i);
                                     }
-                                    spanRowList.add(spanRow);
                                     RowSignature signature = new RowSignature(
-                                            resultSet.getString(1),  // compare_sign
-                                            resultSet.getString(2)   // pk_hash
+                                            Signature128.of(resultSet.getBytes(1)),  // compare_sign
+                                            Signature128.of(resultSet.getBytes(2)),  // pk_hash
+                                            pkValues
                                     );
+                                    spanRowList.add(signature);
                                     cmpSigns.add(signature);
                                 }
                                 fullSpanData1.add(new SpanData(spanRowList,cmpSigns));
@@ -193,23 +170,21 @@ public class VerifyClient1 {
                     }
 
                     for(String str: common){
-                        try(PreparedStatement statement = conn2.prepareStatement(String.format(DIFF_COMPARE,dbName2,compareTblName,str));){
-                            statement.setFetchSize(100);
-                            statement.setFetchDirection(ResultSet.FETCH_FORWARD);
+                        try(PreparedStatement statement = StreamingReads.prepare(conn2, String.format(DIFF_COMPARE,dbName2,compareTblName,str));){
                             try(ResultSet resultSet = statement.executeQuery();){
-                                List<String[]> spanRowList = new ArrayList<>();
+                                List<RowSignature> spanRowList = new ArrayList<>();
                                 Set<RowSignature> cmpSigns = new HashSet<>();
                                 while(resultSet.next()){
-                                    String[] spanRow = new String[3+PRIMARY_KEYS.size()];
-
-                                    for(int i =1; i<=3+PRIMARY_KEYS.size();i++){
-                                        spanRow[i-1] = resultSet.getString(i);
+                                    String[] pkValues = new String[PRIMARY_KEYS.size()];
+                                    for(int i = 0; i < PRIMARY_KEYS.size(); i++){
+                                        pkValues[i] = resultSet.getString(4 + i);
                                     }
-                                    spanRowList.add(spanRow);
                                     RowSignature signature = new RowSignature(
-                                            resultSet.getString(1),  // compare_sign
-                                            resultSet.getString(2)   // pk_hash
+                                            Signature128.of(resultSet.getBytes(1)),  // compare_sign
+                                            Signature128.of(resultSet.getBytes(2)),  // pk_hash
+                                            pkValues
                                     );
+                                    spanRowList.add(signature);
                                     cmpSigns.add(signature);
                                 }
                                 fullSpanData2.add(new SpanData(spanRowList,cmpSigns));
@@ -217,6 +192,10 @@ public class VerifyClient1 {
                         }
                     }
 
+                    List<String[]> diffKeys1 = new ArrayList<>();
+                    List<Boolean> keyChanged1 = new ArrayList<>();
+                    List<String[]> diffKeys2 = new ArrayList<>();
+
                     for (int pos = 0; pos < fullSpanData1.size(); pos++) {
                         SpanData spanData1 = fullSpanData1.get(pos);
                         SpanData spanData2 = fullSpanData2.get(pos);
@@ -226,82 +205,56 @@ public class VerifyClient1 {
                         Set<RowSignature> diffRowsSign2 = calculateDifference(spanData2.getSignatures(), spanData1.getSignatures());
 
                         // 提取比较签名中的pk_hash
-                        Set<String> diffPkHash1 = extractPkHashes(diffRowsSign1);
-                        Set<String> diffPkHash2 = extractPkHashes(diffRowsSign2);
+                        Set<Signature128> diffPkHash1 = extractPkHashes(diffRowsSign1);
+                        Set<Signature128> diffPkHash2 = extractPkHashes(diffRowsSign2);
 
-                        for(String[] res :spanData1.getRowData()){
-                            if(diffRowsSign1.contains(new RowSignature(res[0],res[1]))){
-                                String[] pks = Arrays.copyOfRange(res, 3, res.length);
+                        for(RowSignature res :spanData1.getRowData()){
+                            if(diffRowsSign1.contains(res)){
+                                diffKeys1.add(res.getPkValues());
+                                keyChanged1.add(diffPkHash2.contains(res.getPkHash()));
+                            }
+                        }
 
-                                StringBuilder whereClause = new StringBuilder();
-                                for (int i = 0; i < PRIMARY_KEYS.size(); i++) {
-                                    if (i > 0) {
-                                        whereClause.append(" AND ");
-                                    }
-                                    whereClause.append(PRIMARY_KEYS.get(i))
-                                            .append(" = '")
-                                            .append(pks[i])
-                                            .append("'");
-                                }
-                                String whereClauseStr = whereClause.toString();
-
-                                String query = String.format(QUERY_COMPARE_SPAN,
-                                        dbName1,
-                                        table1,
-                                        whereClauseStr);
-
-                                try(ResultSet needChangeRes = statement1.executeQuery(query)){
-                                    // 处理查询结果并分类
-                                    if (needChangeRes.next()) {
-                                        Map<String, Object> rowData = convertResultSetToMap(needChangeRes);
-
-                                        if (diffPkHash2.contains(res[1])) {
-                                            // 存储原始变更行（需要UPDATE）
-                                            changedIn1.add(rowData);
-                                        } else {
-                                            // 存储原始额外行（需要insert）
-                                            extraIn1.add(rowData);
-                                        }
-                                    }
-                                }
+                        for(RowSignature res :spanData2.getRowData()){
+                            // 两边都有的主键以表1为准，表2只处理多出的行
+                            if(diffRowsSign2.contains(res) && !diffPkHash1.contains(res.getPkHash())){
+                                diffKeys2.add(res.getPkValues());
                             }
                         }
 
-                        for(String[] res :spanData2.getRowData()){
-                            if(diffRowsSign2.contains(new RowSignature(res[0],res[1]))){
-                                String[] pks = Arrays.copyOfRange(res, 3, res.length );
+                    }
 
-                                StringBuilder whereClause = new StringBuilder();
-                                for (int i = 0; i < PRIMARY_KEYS.size(); i++) {
-                                    if (i > 0) {
-                                        whereClause.append(" AND ");
-                                    }
-                                    whereClause.append(PRIMARY_KEYS.get(i))
-                                            .append(" = '")
-                                            .append(pks[i])
-                                            .append("'");
-                                }
-                                String whereClauseStr = whereClause.toString();
-
-                                String query = String.format(QUERY_COMPARE_SPAN,
-                                        dbName2,
-                                        table2,
-                                        whereClauseStr);
-
-                                try(ResultSet needChangeRes = statement2.executeQuery(query);){
-                                    // 处理查询结果并分类
-                                    if (needChangeRes.next()) {
-                                        Map<String, Object> rowData = convertResultSetToMap(needChangeRes);
-
-                                        if (!diffPkHash1.contains(res[1])) {
-                                            // 存储原始行（需要DELETE）
-                                            extraIn2.add(rowData);
-                                        }
-                                    }
-                                }
-                            }
+                    // 按批从原表取回不一致的行
+                    Map<List<String>, Map<String, Object>> rows1 = KeyFetcher.fetch(conn1, dbName1 + "." + table1,
+                            PRIMARY_KEYS, diffKeys1, KeyFetcher.DEFAULT_BATCH_SIZE);
+                    for (int i = 0; i < diffKeys1.size(); i++) {
+                        Map<String, Object> rowData = rows1.get(Arrays.asList(diffKeys1.get(i)));
+                        if (rowData != null) {
+                            // 变更行需要UPDATE，额外行需要insert
+                            (keyChanged1.get(i) ? changedIn1 : extraIn1).add(rowData);
                         }
+                    }
+                    // 额外行需要DELETE
+                    extraIn2.addAll(KeyFetcher.fetch(conn2, dbName2 + "." + table2,
+                            PRIMARY_KEYS, diffKeys2, KeyFetcher.DEFAULT_BATCH_SIZE).values());
+                }
 
+                // 变更行取回表2中的行逐列比较，只UPDATE不同的列
+                List<String[]> changedKeys = new ArrayList<>(changedIn1.size());
+                for (Map<String, Object> rowData : changedIn1) {
+                    String[] key = new String[PRIMARY_KEYS.size()];
+                    for (int i = 0; i < key.length; i++) {
+                        key[i] = String.valueOf(rowData.get(PRIMARY_KEYS.get(i)));
+                    }
+                    changedKeys.add(key);
+                }
+                Map<List<String>, Map<String, Object>> changedRows2 = KeyFetcher.fetch(conn2, dbName2 + "." + table2,
+                        PRIMARY_KEYS, changedKeys, KeyFetcher.DEFAULT_BATCH_SIZE);
+                List<RowDiff> changedDiffs = new ArrayList<>(changedIn1.size());
+                for (int i = 0; i < changedIn1.size(); i++) {
+                    RowDiff diff = RowDiff.compare(changedIn1.get(i), changedRows2.get(Arrays.asList(changedKeys.get(i))), PRIMARY_KEYS);
+                    if (diff != null) {
+                        changedDiffs.add(diff);
                     }
                 }
 
@@ -316,8 +269,8 @@ public class VerifyClient1 {
                 }
 
                 // 如果changedIn1不为空 表示需要 update table2 ，extraIn1 需要table2 insert， extraIn2 需要table2 delete
-                if(!changedIn1.isEmpty() || !extraIn1.isEmpty() || !extraIn2.isEmpty()){
-                    List<String> fixSqlStatements = generateFixSqlStatements(changedIn1, extraIn1, extraIn2,table2);
+                if(!changedDiffs.isEmpty() || !extraIn1.isEmpty() || !extraIn2.isEmpty()){
+                    List<String> fixSqlStatements = generateFixSqlStatements(changedDiffs, extraIn1, extraIn2,table2);
 
                     for(String sql : fixSqlStatements) {
                         Debug(sql);
@@ -349,21 +302,21 @@ public class VerifyClient1 {
 
     /**
      * 根据变更数据生成SQL修复语句
-     * @param changedIn1 需要更新的变更行（表1到表2）
+     * @param changedIn1 需要更新的变更行和不同的列（表1到表2）
      * @param extraIn1 需要删除的额外行（表1独有）
      * @param extraIn2 需要插入的额外行（表2独有）
      * @param table2 容灾表名
      * @return SQL修复语句列表
      */
-    private List<String> generateFixSqlStatements(List<Map<String, Object>> changedIn1,
+    private List<String> generateFixSqlStatements(List<RowDiff> changedIn1,
                                                   List<Map<String, Object>> extraIn1,
                                                   List<Map<String, Object>> extraIn2,
                                                   String table2) {
         List<String> fixSqlList = new ArrayList<>();
 
         // 生成UPDATE语句（表1变更到表2）
-        for (Map<String, Object> rowData : changedIn1) {
-            String updateSql = generateUpdateSql(table2, rowData);
+        for (RowDiff diff : changedIn1) {
+            String updateSql = generateUpdateSql(table2, diff);
             fixSqlList.add(updateSql);
         }
 
@@ -383,9 +336,10 @@ public class VerifyClient1 {
     }
 
     /**
-     * 生成UPDATE SQL语句
+     * 生成UPDATE SQL语句，只SET与表2不同的列
      */
-    private String generateUpdateSql(String tableName, Map<String, Object> rowData) {
+    private String generateUpdateSql(String tableName, RowDiff diff) {
+        Map<String, Object> rowData = diff.source();
         StringBuilder sql = new StringBuilder("UPDATE ");
         sql.append(tableName).append(" SET ");
 
@@ -393,24 +347,19 @@ public class VerifyClient1 {
         StringBuilder setClause = new StringBuilder();
         StringBuilder whereClause = new StringBuilder();
 
-        // 构建SET子句
-        for (Map.Entry<String, Object> entry : rowData.entrySet()) {
-            String columnName = entry.getKey();
-            Object value = entry.getValue();
-
-            // 跳过主键列，主键列用于WHERE条件
-            if (!PRIMARY_KEYS.contains(columnName)) {
-                if (!first) {
-                    setClause.append(", ");
-                }
-                setClause.append(columnName).append(" = ");
-                if (value == null) {
-                    setClause.append("NULL");
-                } else {
-                    setClause.append("'").append(value.toString()).append("'");
-                }
-                first = false;
+        // 构建SET子句，RowDiff中已经不包含主键列
+        for (String columnName : diff.columns()) {
+            Object value = rowData.get(columnName);
+            if (!first) {
+                setClause.append(", ");
+            }
+            setClause.append(columnName).append(" = ");
+            if (value == null) {
+                setClause.append("NULL");
+            } else {
+                setClause.append("'").append(value.toString()).append("'");
             }
+            first = false;
         }
 
         // 构建WHERE子句（使用主键）
@@ -504,31 +453,9 @@ public class VerifyClient1 {
                 }
             }
 
-            // 使用收集到的主键值查询原始表
-            for (String[] pkValues : allPkValues) {
-                StringBuilder whereClause = new StringBuilder();
-                for (int i = 0; i < PRIMARY_KEYS.size(); i++) {
-                    if (i > 0) {
-                        whereClause.append(" AND ");
-                    }
-                    whereClause.append(PRIMARY_KEYS.get(i))
-                            .append(" = '")
-                            .append(pkValues[i])
-                            .append("'");
-                }
-
-                String originalQuery = String.format(QUERY_COMPARE_SPAN,
-                        "test3",
-                        tableName,
-                        whereClause.toString());
-
-                try(ResultSet originalResultSet = statement.executeQuery(originalQuery);){
-                    if (originalResultSet.next()) {
-                        Map<String, Object> rowData = convertResultSetToMap(originalResultSet);
-                        resultList.add(rowData);
-                    }
-                }
-            }
+            // 使用收集到的主键值按批查询原始表
+            resultList.addAll(KeyFetcher.fetch(statement.getConnection(), cateLog + "." + tableName, PRIMARY_KEYS,
+                    allPkValues, KeyFetcher.DEFAULT_BATCH_SIZE).values());
 
         } catch (SQLException e) {
             throw new RuntimeException("查询额外行数据失败: " + e.getMessage(), e);
@@ -537,26 +464,14 @@ public class VerifyClient1 {
         return resultList;
     }
 
-    private Map<String, Object> convertResultSetToMap(ResultSet rs) throws SQLException {
-        Map<String, Object> rowData = new HashMap<>();
-        ResultSetMetaData metaData = rs.getMetaData();
-        int columnCount = metaData.getColumnCount();
-
-        for (int i = 1; i <= columnCount; i++) {
-            rowData.put(metaData.getColumnName(i), rs.getObject(i));
-        }
-
-        return rowData;
-    }
-
     private Set<RowSignature> calculateDifference(Set<RowSignature> set1, Set<RowSignature> set2) {
         Set<RowSignature> difference = new HashSet<>(set1);
         difference.removeAll(set2);
         return difference;
     }
 
-    private Set<String> extractPkHashes(Set<RowSignature> diffRows) {
-        Set<String> pkHashes = new HashSet<>();
+    private Set<Signature128> extractPkHashes(Set<RowSignature> diffRows) {
+        Set<Signature128> pkHashes = new HashSet<>();
         for (RowSignature signature : diffRows) {
             pkHashes.add(signature.getPkHash());
         }
@@ -570,10 +485,10 @@ public class VerifyClient1 {
      * 此汇总查询还会按主键哈希前4位形成的跨度列对比较表的行进行分组，最多可分为16^4 = 65536组
      * @return 汇总表
      */
-    private List<String[]> makeSumRows(Statement statement,String dbName, String compareTblName, String tableName) throws SQLException {
+    private List<HashSummaryTable> makeSumRows(Statement statement,String dbName, String compareTblName, String tableName) throws SQLException {
 
 
-        String pkDef = buildIndexDefinition();
+        String pkDef = dbCompareUtils.buildIndexDefinition(statement.getConnection(), dbName, tableName, PRIMARY_KEYS);
 
         String tempSql1 = String.format(COMPARE_TABLE_TEMPLATE,
                 dbName,
@@ -603,42 +518,13 @@ public class VerifyClient1 {
 
         tempSql1 = String.format(SUM_TABLE_TEMPLATE, dbName, compareTblName);
 
-        try (PreparedStatement preparedStatement = statement.getConnection().prepareStatement(tempSql1)) {
-            preparedStatement.setFetchSize(1000);
-
+        try (PreparedStatement preparedStatement = StreamingReads.prepare(statement.getConnection(), tempSql1)) {
             try (ResultSet resultSet = preparedStatement.executeQuery()) {
-                List<String[]> objectList = new ArrayList<>();
-
-                while (resultSet.next()) {
-                    String[] objects = new String[3];
-                    for (int i = 0; i < 3; i++) {
-                        objects[i] = resultSet.getString(i + 1);
-                    }
-                    objectList.add(objects);
-                }
-
-                return objectList;
+                return SpanSummaries.read(resultSet);
             }
         }
     }
 
-    private String buildIndexDefinition() {
-        StringBuilder indexDefn = new StringBuilder();
-
-        for (String primaryKey : PRIMARY_KEYS) {
-            indexDefn.append(primaryKey)
-                    .append(" VARCHAR(255), ");
-        }
-
-        // 移除最后的逗号和空格
-        if (indexDefn.length() > 0) {
-            indexDefn.setLength(indexDefn.length() - 2);
-        }
-
-        return indexDefn.toString();
-    }
-
-
     private void MulQuery(StringBuilder sql, String obj) {
         String[] pkValues = obj.split("\\|");
         StringBuilder whereClause = new StringBuilder(" WHERE ");
@@ -6,8 +6,14 @@ import lombok.Setter;
 import org.springframework.http.server.PathContainer;
 import org.springframework.stereotype.Component;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.sql.*;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * 数据库校验入口类
@@ -20,6 +26,9 @@ public class dbCompare {
     private final static String ERROR_DB_MISSING = "The database %s does not exist.";
     private final static String ERROR_OBJECT_LIST = "The list of objects differs among database %s and %s.";
     private final static String ERROR_ORW_COUNT = "Row counts are not the same among %s and %s.\n#";
+    // 没有指定服务器时使用的连接，格式为 user[:password]@host[:port]
+    private final static String DEFAULT_SERVER1 = "root:infocore@localhost:3306";
+    private final static String DEFAULT_SERVER2 = "root:infocore@localhost:3307";
     private final static Map<String, Object> DEFAULT_OPTIONS = new HashMap<>() {{
         put("quiet", false);
         put("verbosity", 0);
@@ -31,7 +40,51 @@ public class dbCompare {
         put("no_row_count", false);
         put("no_data", false);
         put("transform", false);
-        put("span_key_size", DEFAULT_SPAN_KEY_SIZE);
+        // 默认按表的行数自动选择span位数，也可以设置成固定的整数（如DEFAULT_SPAN_KEY_SIZE）
+        put("span_key_size", SpanSizing.AUTO);
+        put("span_rows_target", SpanSizing.DEFAULT_ROWS_PER_SPAN);
+        // 为false时不创建比较临时表，直接在源表上GROUP BY汇总
+        put("compare_table", true);
+        // 按前缀分层比较span汇总，关闭时一次取回全部span的汇总
+        put("span_tree", true);
+        put("span_tree_level_digits", SpanTree.DEFAULT_LEVEL_DIGITS);
+        // 明细比较时每条查询取回的span数
+        put("span_batch_size", dbCompareUtils.DEFAULT_SPAN_BATCH_SIZE);
+        // 按主键取回不一致的行时每条查询包含的主键数
+        put("key_batch_size", KeyFetcher.DEFAULT_BATCH_SIZE);
+        // 按主键切分区间时每个区间的目标行数
+        put("chunk_rows", ChunkPlanner.DEFAULT_CHUNK_ROWS);
+        // 表级预检查：CHECKSUM TABLE，或按主键区间校验，只比较不一致的区间
+        put("checksum_mode", dbCompareUtils.CHECKSUM_TABLE);
+        // 修复方式：print只打印修复语句，apply直接在服务器2上批量执行
+        put("repair_mode", dbCompareUtils.REPAIR_PRINT);
+        // 直接修复时每张表并行写入的连接数
+        put("repair_writers", 1);
+        // 直接修复时每个事务提交的行数
+        put("repair_commit_rows", RepairApplier.DEFAULT_COMMIT_ROWS);
+        // 直接修复时探测从库延迟的方式：none、replica（SHOW REPLICA STATUS）或heartbeat（心跳表）
+        put("repair_lag_probe", LagProbe.NONE);
+        // 探测延迟的从库，格式与服务器参数相同
+        put("repair_replica", null);
+        put("repair_heartbeat_table", "percona.heartbeat");
+        // 从库延迟（毫秒）达到repair_max_lag时暂停修复，降到repair_resume_lag以下后继续
+        put("repair_max_lag", RepairThrottle.DEFAULT_MAX_LAG_MILLIS);
+        put("repair_resume_lag", RepairThrottle.DEFAULT_RESUME_LAG_MILLIS);
+        // 按延迟调整批大小时的最小批，最大批为repair_commit_rows
+        put("repair_min_batch", RepairThrottle.DEFAULT_MIN_BATCH);
+        // 差异记录和修复语句的输出目录，为null时修复语句直接打印
+        put("output_dir", null);
+        // 输出文件超过这个大小后换下一个文件
+        put("output_file_bytes", DiffSink.DEFAULT_MAX_FILE_BYTES);
+        // 修复语句写成可以断点续做的修复计划（见replayRepairPlan），为null时不生成
+        put("repair_plan_dir", null);
+        // 修复计划每块的语句数，重放时每块一个事务
+        put("repair_plan_chunk_statements", RepairPlan.DEFAULT_CHUNK_STATEMENTS);
+        put("row_hasher", RowHasher.MD5);
+        // 同时校验的对象数，每台服务器同时使用的连接数默认与之相同
+        put("parallelism", 1);
+        // compareAllDatabases同时校验的数据库数
+        put("database_parallelism", 1);
     }};
 
 
@@ -40,6 +93,117 @@ public class dbCompare {
     public boolean databaseCompare(String server1Val, String server2Val, String db1, String db2, Map<String,Object> options) throws SQLException {
 
         checkOptionDefault(options);
+        // server2为空时两个库在同一台服务器上，共用一个连接池
+        boolean sameServer = server2Val == null || server2Val.isBlank();
+        try(PooledDataSource pool1 = new PooledDataSource(serverConfig(server1Val, DEFAULT_SERVER1, options, sameServer));
+            PooledDataSource pool2 = sameServer ? null : new PooledDataSource(serverConfig(server2Val, DEFAULT_SERVER2, options, false))){
+            return databaseCompare(server1Val, server2Val, db1, db2, options,
+                    pool1.forDatabase(db1), (sameServer ? pool1 : pool2).forDatabase(db2), null);
+        }
+    }
+
+    /**
+     * @param dataSource1 服务器1的连接池，默认库为db1
+     * @param dataSource2 服务器2的连接池，默认库为db2
+     * @param budget 多个数据库同时校验时共用的连接预算，为null时按本库的选项单独计算
+     */
+    private boolean databaseCompare(String server1Val, String server2Val, String db1, String db2, Map<String,Object> options,
+                                    PooledDataSource dataSource1, PooledDataSource dataSource2,
+                                    ConnectionBudget budget) throws SQLException {
+
+        checkOptionDefault(options);
+        if(!dbCompareUtils.REPAIR_APPLY.equals(options.get("repair_mode"))){
+            return compareDatabase(server1Val, server2Val, db1, db2, options, dataSource1, dataSource2, budget);
+        }
+        dbCompareUtils.checkRepairDirection(options);
+
+        // 直接修复时在服务器2上另建一个开启rewriteBatchedStatements的连接池，不影响比较用的连接
+        int writers = (int) options.getOrDefault("repair_writers", 1);
+        int parallelism = (int) options.getOrDefault("parallelism", 1);
+        MyConnection writerConfig = dataSource2.getConfig().copy();
+        writerConfig.setRewriteBatchedStatements(true);
+        writerConfig.setMaxPoolSize(Math.max(writers, 1) * Math.max(parallelism, 1));
+        writerConfig.setMinIdle(0);
+
+        MyConnection replicaConfig = replicaConfig(options, parallelism);
+        try(PooledDataSource writerPool = new PooledDataSource(writerConfig);
+            PooledDataSource replicaPool = replicaConfig == null ? null : new PooledDataSource(replicaConfig)){
+            Map<String,Object> repairOptions = new HashMap<>(options);
+            repairOptions.put("repair_target", writerPool.forDatabase(db2));
+            if(replicaPool != null){
+                repairOptions.put("lag_probe", lagProbe(options, replicaPool));
+            }
+            return compareDatabase(server1Val, server2Val, db1, db2, repairOptions, dataSource1, dataSource2, budget);
+        }
+    }
+
+    /**
+     * 重放repair_plan_dir中生成的修复计划，从上次提交的块之后继续
+     * 每块在一个事务中执行，提交后记录检查点，中断后再次执行同一个计划时跳过已经提交的块；
+     * 设置了repair_lag_probe时每块提交后检查从库延迟，超过repair_max_lag时暂停
+     * @param serverVal 执行修复的服务器，为空时使用服务器2的默认值
+     * @param db 修复的数据库
+     * @param planFile 修复计划文件
+     * @return 最后提交的块的序号
+     */
+    public long replayRepairPlan(String serverVal, String db, String planFile, Map<String,Object> options) throws SQLException, IOException {
+
+        checkOptionDefault(options);
+        MyConnection config = MyConnection.parse(serverVal == null || serverVal.isBlank() ? DEFAULT_SERVER2 : serverVal);
+        config.setMaxPoolSize(1);
+        config.setMinIdle(0);
+        MyConnection replicaConfig = replicaConfig(options, 1);
+        try(PooledDataSource pool = new PooledDataSource(config);
+            PooledDataSource replicaPool = replicaConfig == null ? null : new PooledDataSource(replicaConfig);
+            Connection conn = pool.forDatabase(db).getConnection()){
+
+            RepairThrottle throttle = null;
+            if(replicaPool != null){
+                // 块的大小在生成计划时已经确定，这里只用到暂停
+                throttle = new RepairThrottle(lagProbe(options, replicaPool),
+                        ((Number) options.get("repair_max_lag")).longValue(),
+                        ((Number) options.get("repair_resume_lag")).longValue(),
+                        1, 1);
+            }
+
+            Path plan = Path.of(planFile);
+            RepairPlan.Replay replay = RepairPlan.replay(conn, plan, throttle);
+            if(!(boolean) options.getOrDefault("quiet", false)){
+                System.out.printf("# Replayed %d chunks (%d statements) from %s, skipped %d already committed%n",
+                        replay.chunks(), replay.statements(), plan, replay.skipped());
+            }
+            return replay.lastSequence();
+        }
+    }
+
+    /**
+     * 按从库延迟控制修复的节奏时，连接从库的配置，没有设置repair_lag_probe时返回null
+     * @param poolSize 同时探测的连接数
+     */
+    private static MyConnection replicaConfig(Map<String, Object> options, int poolSize) {
+        String lagProbe = (String) options.getOrDefault("repair_lag_probe", LagProbe.NONE);
+        if(LagProbe.NONE.equalsIgnoreCase(lagProbe)){
+            return null;
+        }
+        String replicaVal = (String) options.get("repair_replica");
+        if(replicaVal == null || replicaVal.isBlank()){
+            throw new IllegalArgumentException("repair_lag_probe为" + lagProbe + "时需要设置repair_replica");
+        }
+        MyConnection config = MyConnection.parse(replicaVal);
+        config.setMaxPoolSize(Math.max(poolSize, 1));
+        config.setMinIdle(0);
+        return config;
+    }
+
+    private static LagProbe lagProbe(Map<String, Object> options, PooledDataSource replicaPool) {
+        return LagProbe.forName((String) options.get("repair_lag_probe"), replicaPool,
+                (String) options.getOrDefault("repair_heartbeat_table", "percona.heartbeat"));
+    }
+
+    private boolean compareDatabase(String server1Val, String server2Val, String db1, String db2, Map<String,Object> options,
+                                    PooledDataSource dataSource1, PooledDataSource dataSource2,
+                                    ConnectionBudget budget) throws SQLException {
+
         boolean quiet = (boolean) options.getOrDefault("quiet","False");
 
         // 提前声明函数结果success
@@ -48,16 +212,16 @@ public class dbCompare {
         // 得到两个数据库
         dbCompareUtils.serverConnect(server1Val,server2Val,db1,db2,options);
 
-        // 直接从conn开始吧
-        try(Connection db1Conn = DriverManager.getConnection("jdbc:mysql://localhost:3306/test3","root","infocore");
-            Connection db2Conn = DriverManager.getConnection("jdbc:mysql://localhost:3306/test4","root","infocore")){
+        // 直接从conn开始吧，并发校验时每个工作线程再从连接池获取自己的连接
+        try(Connection db1Conn = dataSource1.getConnection();
+            Connection db2Conn = dataSource2.getConnection()){
 
-            if(db1Conn.isValid(10)) throw new SQLException(String.format(ERROR_DB_MISSING, db1));
-            if(db1Conn.isValid(10)) throw new SQLException(String.format(ERROR_DB_MISSING, db2));
+            if(!db1Conn.isValid(10)) throw new SQLException(String.format(ERROR_DB_MISSING, db1));
+            if(!db2Conn.isValid(10)) throw new SQLException(String.format(ERROR_DB_MISSING, db2));
 
             if(!quiet){
                 String message;
-                if(server2Val.isEmpty()){
+                if(server2Val == null || server2Val.isEmpty()){
                     message = "# Checking databases %s and %s on server1\n#";
                 }
                 else{
@@ -84,71 +248,201 @@ public class dbCompare {
             // 这里的inBoth格式：   table_type:table_name
             List<String> inBoth = checkResult.getInBoth();
 
-            for(String item : inBoth){
-                List<String> errorList = new ArrayList<>();
-                List<String> debugMsgs = new ArrayList<>();
-
-                String objType = item.split(":")[0];
-
-                String qObj1 = String.format("%s.%s",db1,item.split(":")[1]);
-                String qObj2 = String.format("%s.%s",db2,item.split(":")[1]);
-
-                List<String> errors = compareObject(db1Conn, db2Conn, qObj1, qObj2, reporter ,options, objType);
-
-                errorList.addAll(errors);
-
-                if(objType.equals("table")){
-                    errors = checkRowCounts(db1Conn, db2Conn, qObj1, qObj2, reporter, options);
-                    if(!errors.isEmpty()){
-                        errorList.addAll(errors);
+            int parallelism = (int) options.getOrDefault("parallelism", 1);
+            if(parallelism <= 1){
+                for(String item : inBoth){
+                    if(!verifyObject(db1Conn, db2Conn, db1, db2, item, reporter, options, budget)){
+                        success = false;
                     }
                 }
-                else{
-                    reporter.setReportState("-");
-                }
+            }
+            else if(!verifyObjectsConcurrently(dataSource1, dataSource2, db1, db2, inBoth, options, budget)){
+                success = false;
+            }
+            return success;
+        }
+    }
 
-                if(objType.equals("table")){
-                    // 这里应该是由两个返回值的，但是貌似第二个返回值一直为空，且后续没有使用
-                    errors = checkDataConsistency(db1Conn, db2Conn, qObj1, qObj2, reporter, options);
-                    if(!errors.isEmpty()){
-                        errorList.addAll(errors);
-                    }
-                }
-                else  reporter.reportState("-");
-                // selectedCode部分的逻辑
-                if ((int) options.get("verbosity") > 0) {
-                    if (!quiet) {
-                        System.out.println();
-                    }
+    /**
+     * 并发校验各个对象
+     * 每个工作线程使用自己的连接和Reporter，输出先缓冲起来，再按inBoth的顺序打印，
+     * 与逐个校验时的输出顺序相同；某个对象抛出异常时与逐个校验一样终止
+     */
+    private boolean verifyObjectsConcurrently(PooledDataSource dataSource1, PooledDataSource dataSource2, String db1, String db2,
+                                              List<String> inBoth, Map<String, Object> options,
+                                              ConnectionBudget sharedBudget) throws SQLException {
+        int parallelism = (int) options.getOrDefault("parallelism", 1);
+        ConnectionBudget budget = sharedBudget != null ? sharedBudget : new ConnectionBudget(
+                (int) options.getOrDefault("server1_parallelism", parallelism),
+                (int) options.getOrDefault("server2_parallelism", parallelism),
+                isSameServer(dataSource1, dataSource2));
+
+        boolean success = true;
+        ThreadOutput.install();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, Math.max(inBoth.size(), 1)));
+        try {
+            List<Future<ObjectResult>> futures = new ArrayList<>(inBoth.size());
+            for(String item : inBoth){
+                futures.add(executor.submit(() -> {
+                    ThreadOutput.begin();
                     try {
-                        String createObj1 = dbCompareUtils.getCreateObject(db1Conn, qObj1, options, objType);
-                        String createObj2 = dbCompareUtils.getCreateObject(db2Conn, qObj2, options, objType);
-
-                        if ((int) options.get("verbosity") > 0 && !quiet) {
-                            System.out.println("# Object 1 definition:");
-                            System.out.println(createObj1);
-                            System.out.println("# Object 2 definition:");
-                            System.out.println(createObj2);
+                        budget.acquire();
+                        try(Connection conn1 = dataSource1.getConnection();
+                            Connection conn2 = dataSource2.getConnection()){
+                            boolean ok = verifyObject(conn1, conn2, db1, db2, item, new Reporter(options), options);
+                            return new ObjectResult(ok, ThreadOutput.end(), null);
+                        } finally {
+                            budget.release();
                         }
-                    } catch (SQLException e) {
-                        System.err.println("Error getting object definition: " + e.getMessage());
+                    } catch (Throwable e) {
+                        return new ObjectResult(false, ThreadOutput.end(), e);
                     }
-                }
-
-                if (debugMsgs != null && !debugMsgs.isEmpty() && (int) options.get("verbosity") > 2) {
-                    reporter.reportErrors(debugMsgs);
-                }
+                }));
+            }
 
-                if (!quiet) {
-                    reporter.reportErrors(errorList);
+            for(Future<ObjectResult> future : futures){
+                ObjectResult result;
+                try {
+                    result = future.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new SQLException("Verification interrupted.", e);
+                } catch (ExecutionException e) {
+                    throw new SQLException(e.getCause());
                 }
-                if (!errorList.isEmpty()) {
+                System.out.write(result.output(), 0, result.output().length);
+                System.out.flush();
+                if(result.error() instanceof SQLException e) throw e;
+                if(result.error() instanceof RuntimeException e) throw e;
+                if(result.error() instanceof Error e) throw e;
+                if(result.error() != null) throw new SQLException(result.error());
+                if(!result.success()){
                     success = false;
                 }
+            }
+        } finally {
+            executor.shutdownNow();
+            ThreadOutput.uninstall();
+        }
+        return success;
+    }
+
+    /**
+     * 一个对象的校验结果和它的输出
+     */
+    private record ObjectResult(boolean success, byte[] output, Throwable error) {
+    }
+
+    private static boolean isSameServer(PooledDataSource dataSource1, PooledDataSource dataSource2) {
+        return dataSource1.getConfig().getServer().equals(dataSource2.getConfig().getServer());
+    }
+
+    /**
+     * 服务器的连接池配置
+     * 连接池要容纳并发校验的表占用的连接，加上每个正在比较的库自己的一个连接；
+     * 两个库在同一台服务器上时两边的连接都来自这个池
+     * @param serverVal user[:password]@host[:port]，为空时使用defaultVal
+     */
+    private static MyConnection serverConfig(String serverVal, String defaultVal, Map<String, Object> options, boolean sameServer) {
+        MyConnection config = MyConnection.parse(serverVal == null || serverVal.isBlank() ? defaultVal : serverVal);
+        int parallelism = (int) options.getOrDefault("parallelism", 1);
+        int tables = Math.max(parallelism, Math.max(
+                (int) options.getOrDefault("server1_parallelism", parallelism),
+                (int) options.getOrDefault("server2_parallelism", parallelism)));
+        int size = tables + (int) options.getOrDefault("database_parallelism", 1);
+        config.setMaxPoolSize((int) options.getOrDefault("pool_size", sameServer ? size * 2 : size));
+        config.setMinIdle(Math.min(config.getMinIdle(), config.getMaxPoolSize()));
+        return config;
+    }
+
+    /**
+     * 在共用的连接预算内逐个校验对象
+     */
+    private boolean verifyObject(Connection db1Conn, Connection db2Conn, String db1, String db2, String item,
+                                 Reporter reporter, Map<String, Object> options, ConnectionBudget budget) throws SQLException {
+        if(budget == null){
+            return verifyObject(db1Conn, db2Conn, db1, db2, item, reporter, options);
+        }
+        try {
+            budget.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Verification interrupted.", e);
+        }
+        try {
+            return verifyObject(db1Conn, db2Conn, db1, db2, item, reporter, options);
+        } finally {
+            budget.release();
+        }
+    }
+
+    /**
+     * 校验一个对象：定义、行数和数据一致性
+     * @param item 格式为 table_type:table_name
+     * @return 没有发现差异时为true
+     */
+    private boolean verifyObject(Connection db1Conn, Connection db2Conn, String db1, String db2, String item,
+                                 Reporter reporter, Map<String, Object> options) throws SQLException {
+        boolean quiet = (boolean) options.getOrDefault("quiet", false);
+
+        List<String> errorList = new ArrayList<>();
+        List<String> debugMsgs = new ArrayList<>();
+
+        String objType = item.split(":")[0];
 
+        String qObj1 = String.format("%s.%s",db1,item.split(":")[1]);
+        String qObj2 = String.format("%s.%s",db2,item.split(":")[1]);
+
+        List<String> errors = compareObject(db1Conn, db2Conn, qObj1, qObj2, reporter ,options, objType);
+
+        errorList.addAll(errors);
+
+        if(objType.equals("table")){
+            errors = checkRowCounts(db1Conn, db2Conn, qObj1, qObj2, reporter, options);
+            if(!errors.isEmpty()){
+                errorList.addAll(errors);
+            }
+        }
+        else{
+            reporter.setReportState("-");
+        }
+
+        if(objType.equals("table")){
+            // 这里应该是由两个返回值的，但是貌似第二个返回值一直为空，且后续没有使用
+            errors = checkDataConsistency(db1Conn, db2Conn, qObj1, qObj2, reporter, options);
+            if(!errors.isEmpty()){
+                errorList.addAll(errors);
+            }
+        }
+        else  reporter.reportState("-");
+        // selectedCode部分的逻辑
+        if ((int) options.get("verbosity") > 0) {
+            if (!quiet) {
+                System.out.println();
+            }
+            try {
+                String createObj1 = dbCompareUtils.getCreateObject(db1Conn, qObj1, options, objType);
+                String createObj2 = dbCompareUtils.getCreateObject(db2Conn, qObj2, options, objType);
+
+                if ((int) options.get("verbosity") > 0 && !quiet) {
+                    System.out.println("# Object 1 definition:");
+                    System.out.println(createObj1);
+                    System.out.println("# Object 2 definition:");
+                    System.out.println(createObj2);
+                }
+            } catch (SQLException e) {
+                System.err.println("Error getting object definition: " + e.getMessage());
             }
-            return success;
         }
+
+        if (debugMsgs != null && !debugMsgs.isEmpty() && (int) options.get("verbosity") > 2) {
+            reporter.reportErrors(debugMsgs);
+        }
+
+        if (!quiet) {
+            reporter.reportErrors(errorList);
+        }
+        return errorList.isEmpty();
     }
 
     /**
@@ -165,18 +459,20 @@ public class dbCompare {
         boolean success = true;
         boolean quiet = (boolean) options.getOrDefault("quiet", false);
 
-        // 这里的server1Val只是装饰的，实际应该用的Connection
-
-        try(Connection conn1 = DriverManager.getConnection("jdbc:mysql://localhost:3306","root","infocore");
-            Connection conn2 = DriverManager.getConnection("jdbc:mysql://localhost:3307","root","infocore")) {
+        checkOptionDefault(options);
+        MyConnection server1 = serverConfig(server1Val, DEFAULT_SERVER1, options, false);
+        MyConnection server2 = serverConfig(server2Val, DEFAULT_SERVER2, options, false);
+
+        // 检查指定的服务器是否相同
+        if(server1.getServer().equals(server2.getServer())) {
+            throw new SQLException(String.format(
+                    "Specified servers are the same (server1=%s and server2=%s). Cannot compare all databases on the same server.",
+                    server1.getServer(), server2.getServer()));
+        }
 
-            // 检查指定的服务器是否相同，这里简化处理
-            if(conn1.equals(conn2)) {
-                throw new SQLException(
-                        "Specified servers are the same (server1=localhost:3306 and " +
-                                "server2=localhost:3307). Cannot compare all databases on the same server."
-                );
-            }
+        // 所有库共用这两个连接池
+        try(PooledDataSource pool1 = new PooledDataSource(server1);
+            PooledDataSource pool2 = new PooledDataSource(server2)) {
 
             // 获取除了排除的所有数据库
             StringBuilder conditions = new StringBuilder();
@@ -201,9 +497,10 @@ public class dbCompare {
                 %s
             """.formatted(conditions.toString());
 
-            // 获取服务器1上的数据库
+            // 获取服务器1上的数据库，查询用的连接立即归还，并发校验时池中的连接都留给各个库
             Set<String> server1Dbs = new HashSet<>();
-            try(PreparedStatement stmt1 = conn1.prepareStatement(getDbsQuery);
+            try(Connection conn1 = pool1.getConnection();
+                PreparedStatement stmt1 = conn1.prepareStatement(getDbsQuery);
                 ResultSet rs1 = stmt1.executeQuery()) {
                 while(rs1.next()) {
                     server1Dbs.add(rs1.getString(1));
@@ -212,7 +509,8 @@ public class dbCompare {
 
             // 获取服务器2上的数据库
             Set<String> server2Dbs = new HashSet<>();
-            try(PreparedStatement stmt2 = conn2.prepareStatement(getDbsQuery);
+            try(Connection conn2 = pool2.getConnection();
+                PreparedStatement stmt2 = conn2.prepareStatement(getDbsQuery);
                 ResultSet rs2 = stmt2.executeQuery()) {
                 while(rs2.next()) {
                     server2Dbs.add(rs2.getString(1));
@@ -241,8 +539,11 @@ public class dbCompare {
                 }
             }
 
-            Set<String> commonDbs = new HashSet<>(server1Dbs);
-            commonDbs.retainAll(server2Dbs);
+            // 排序后按库名顺序输出
+            Set<String> commonSet = new HashSet<>(server1Dbs);
+            commonSet.retainAll(server2Dbs);
+            List<String> commonDbs = new ArrayList<>(commonSet);
+            Collections.sort(commonDbs);
 
             if (!commonDbs.isEmpty()) {
                 if (!quiet) {
@@ -252,25 +553,96 @@ public class dbCompare {
                 success = false;
             }
 
-            for (String db : commonDbs) {
-                try {
-                    boolean res = databaseCompare(server1Val, server2Val, db, db, options);
-                    if (!res) {
-                        success = false;
-                    }
-                    if (!quiet) {
-                        System.out.println("\n");
-                    }
-                } catch (SQLException e) {
-                    System.out.println("ERROR: " + e.getMessage() + "\n");
+            Map<String, String> results = compareDatabasesConcurrently(server1Val, server2Val, pool1, pool2, commonDbs, options);
+            for (String state : results.values()) {
+                if (!"PASS".equals(state)) {
                     success = false;
                 }
             }
 
+            // 汇总每个库的结果
+            if (!quiet && !results.isEmpty()) {
+                System.out.println("# Database comparison summary:");
+                for (Map.Entry<String, String> entry : results.entrySet()) {
+                    System.out.printf("# %-30s %s%n", entry.getKey(), entry.getValue());
+                }
+            }
+
             return success;
         }
     }
 
+    /**
+     * 同时校验多个数据库
+     * database_parallelism控制同时校验的库的数量，所有库的表共用一个按服务器计算的连接预算，
+     * 库之间的总并发不会超过server1_parallelism和server2_parallelism。
+     * 每个库的输出缓冲后按库名顺序打印，一个库失败不影响其他库
+     * @return 库名 -> PASS、FAIL或ERROR，按库名顺序
+     */
+    private Map<String, String> compareDatabasesConcurrently(String server1Val, String server2Val,
+                                                             PooledDataSource pool1, PooledDataSource pool2, List<String> dbs,
+                                                             Map<String, Object> options) throws SQLException {
+        checkOptionDefault(options);
+        boolean quiet = (boolean) options.getOrDefault("quiet", false);
+        int dbParallelism = (int) options.getOrDefault("database_parallelism", 1);
+        int parallelism = Math.max(dbParallelism, (int) options.getOrDefault("parallelism", 1));
+        // 两边的库在不同的服务器上
+        ConnectionBudget budget = new ConnectionBudget(
+                (int) options.getOrDefault("server1_parallelism", parallelism),
+                (int) options.getOrDefault("server2_parallelism", parallelism),
+                false);
+
+        Map<String, String> results = new LinkedHashMap<>();
+        ThreadOutput.install();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(dbParallelism, dbs.size())));
+        try {
+            List<Future<DatabaseResult>> futures = new ArrayList<>(dbs.size());
+            for (String db : dbs) {
+                futures.add(executor.submit(() -> {
+                    ThreadOutput.begin();
+                    String state;
+                    try {
+                        // 每个库使用自己的选项副本，互不影响
+                        state = databaseCompare(server1Val, server2Val, db, db, new HashMap<>(options),
+                                pool1.forDatabase(db), pool2.forDatabase(db), budget) ? "PASS" : "FAIL";
+                        if (!quiet) {
+                            System.out.println("\n");
+                        }
+                    } catch (SQLException | RuntimeException | Error e) {
+                        System.out.println("ERROR: " + e.getMessage() + "\n");
+                        state = "ERROR";
+                    }
+                    return new DatabaseResult(state, ThreadOutput.end());
+                }));
+            }
+
+            for (int i = 0; i < dbs.size(); i++) {
+                DatabaseResult result;
+                try {
+                    result = futures.get(i).get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new SQLException("Verification interrupted.", e);
+                } catch (ExecutionException e) {
+                    result = new DatabaseResult("ERROR", ("ERROR: " + e.getCause() + "\n").getBytes());
+                }
+                System.out.write(result.output(), 0, result.output().length);
+                System.out.flush();
+                results.put(dbs.get(i), result.state());
+            }
+        } finally {
+            executor.shutdownNow();
+            ThreadOutput.uninstall();
+        }
+        return results;
+    }
+
+    /**
+     * 一个数据库的校验结果和它的输出
+     */
+    private record DatabaseResult(String state, byte[] output) {
+    }
+
 
     private List<String> checkDataConsistency(Connection db1Conn, Connection db2Conn, String obj1, String obj2, Reporter reporter, Map<String, Object> options) {
 
@@ -294,13 +666,13 @@ public class dbCompare {
                 // 如果存在差异，根据方向构建差异列表
                 if (direction.equals("server1") || reverse) {
                     if (diffServer.getFirst() != null) {
-                        errors.addAll(diffServer.getFirst());
+                        errors.addAll(diffServer.getFirst().report());
                     }
                 }
 
                 if (direction.equals("server2") || reverse) {
                     if (diffServer.getSecond() != null) {
-                        errors.addAll(diffServer.getSecond());
+                        errors.addAll(diffServer.getSecond().report());
                     }
                 }
             } catch (SQLException e) {
@@ -503,7 +875,8 @@ public class dbCompare {
     }
 
     private void checkOptionDefault(Map<String,Object> options) {
-        options.putAll(DEFAULT_OPTIONS);
+        // 只补充用户没有设置的选项，避免覆盖用户的配置
+        DEFAULT_OPTIONS.forEach(options::putIfAbsent);
     }
 
 
@@ -9,15 +9,35 @@ import org.apache.commons.lang3.tuple.ImmutablePair;
 import org.apache.commons.lang3.tuple.ImmutableTriple;
 import org.springframework.stereotype.Component;
 
+import javax.sql.DataSource;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
 import java.sql.*;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
 
 @Component
 public class dbCompareUtils {
 
     private final static int DEFAULT_SPAN_KEY_SIZE = 8;
-    private static final List<String> PRIMARY_KEYS = new ArrayList<>();
-    private static final List<String> COMPARE_COLUMNS = new ArrayList<>();
+    // 明细比较时一条DIFF_COMPARE_BATCH查询包含的span数；不使用比较表时，差异span不超过这个数才在查询中按span过滤
+    public final static int DEFAULT_SPAN_BATCH_SIZE = 500;
+    // checksum_mode：整张表CHECKSUM TABLE，或按主键区间计算校验和（RangeChecksum）
+    public final static String CHECKSUM_TABLE = "table";
+    public final static String CHECKSUM_CHUNK = "chunk";
+    // repair_mode：打印修复语句，或直接在容灾库上执行（RepairApplier）
+    public final static String REPAIR_PRINT = "print";
+    public final static String REPAIR_APPLY = "apply";
+    private static final HexFormat HEX = HexFormat.of().withUpperCase();
+    // 当前比较的表的主键和列，每个线程各自一份，多张表可以在不同的线程中同时比较
+    private static final ThreadLocal<List<String>> PRIMARY_KEYS = ThreadLocal.withInitial(ArrayList::new);
+    private static final ThreadLocal<List<String>> COMPARE_COLUMNS = ThreadLocal.withInitial(ArrayList::new);
 
     private static final String COMPARE_TABLE = """
         CREATE TEMPORARY TABLE %s.%s (
@@ -32,44 +52,81 @@ public class dbCompareUtils {
         INSERT INTO %s.%s
            (compare_sign, pk_hash, span, %s)
            SELECT
-           UNHEX(MD5(CONCAT_WS('/', %s))),
-           UNHEX(MD5(CONCAT_WS('/', %s))),
-           UNHEX(LEFT(MD5(CONCAT_WS('/', %s)), %d)),
+           UNHEX(%s(CONCAT_WS('/', %s))),
+           UNHEX(%s(CONCAT_WS('/', %s))),
+           UNHEX(LEFT(%s(CONCAT_WS('/', %s)), %d)),
            %s
-           FROM %s.%s;
+           FROM %s.%s
+           WHERE %s;
     """;
 
     private static final String SUM_TABLE = """
         SELECT HEX(span) as span, COUNT(*) as cnt,
-            CONCAT(SUM(CONV(SUBSTRING(HEX(compare_sign),1,8),16,10)),
-            SUM(CONV(SUBSTRING(HEX(compare_sign),9,8),16,10)),
-            SUM(CONV(SUBSTRING(HEX(compare_sign),17,8),16,10)),
-            SUM(CONV(SUBSTRING(HEX(compare_sign),25,8),16,10))) as sig
+            SUM(CONV(SUBSTRING(HEX(compare_sign),1,8),16,10)) as sum1,
+            SUM(CONV(SUBSTRING(HEX(compare_sign),9,8),16,10)) as sum2,
+            SUM(CONV(SUBSTRING(HEX(compare_sign),17,8),16,10)) as sum3,
+            SUM(CONV(SUBSTRING(HEX(compare_sign),25,8),16,10)) as sum4
         FROM %s.%s
         GROUP BY span
     """;
 
-    private static final String DIFF_COMPARE = """
-        SELECT * FROM %s.%s
-            WHERE span = UNHEX('%s') ORDER BY pk_hash
+    // 不使用比较表时，直接在源表上按span分组汇总；摘要只计算一次，拆成两个64位整数后用位运算取四段
+    private static final String DIRECT_SUM_TABLE = """
+        SELECT span, COUNT(*) as cnt,
+            SUM(hi >> 32) as sum1,
+            SUM(hi & 0xFFFFFFFF) as sum2,
+            SUM(lo >> 32) as sum3,
+            SUM(lo & 0xFFFFFFFF) as sum4
+        FROM (
+            SELECT span,
+                CAST(CONV(LEFT(sign, 16), 16, 10) AS UNSIGNED) as hi,
+                CAST(CONV(RIGHT(sign, 16), 16, 10) AS UNSIGNED) as lo
+            FROM (
+                SELECT UPPER(LEFT(%s(CONCAT_WS('/', %s)), %d)) as span,
+                    %s(CONCAT_WS('/', %s)) as sign
+                FROM %s.%s
+                WHERE %s
+            ) r
+        ) s
+        GROUP BY span
     """;
 
-    private static final String DIFF_COMPARE_BATCH = """
-        SELECT * FROM %s.%s
-            WHERE span IN (%s) ORDER BY span, pk_hash
+    // 不使用比较表时明细比较的数据来源，列与比较表相同；span是算出来的，无法走索引，每条查询只读一个主键区间
+    private static final String DIRECT_SOURCE = """
+        SELECT
+           UNHEX(%s(CONCAT_WS('/', %s))) as compare_sign,
+           UNHEX(%s(CONCAT_WS('/', %s))) as pk_hash,
+           UNHEX(LEFT(%s(CONCAT_WS('/', %s)), %d)) as span,
+           %s
+           FROM %s.%s
+           WHERE %s
     """;
 
+    // 差异span不多时在服务端按span过滤DIRECT_SOURCE，IN列表是所有差异span的UNHEX(?)
+    private static final String DIRECT_SPAN_FILTER = """
+        SELECT * FROM (%s) as d
+            WHERE span IN (%s)
+    """;
 
-    private static final String QUERY_COMPARE_SPAN = """
-        SELECT * FROM %s.%s WHERE %s
+    // %s是比较表（库名.表名），IN列表是一批UNHEX(?)
+    private static final String DIFF_COMPARE_BATCH = """
+        SELECT * FROM %s
+            WHERE span IN (%s) ORDER BY span, pk_hash
     """;
 
+
     private static final String COMPARE_TABLE_DROP = """
         DROP TABLE %s.%s;
     """;
 
     private static final String COMPARE_TABLE_NAME = "compare_%s";
 
+    private static final String PK_COLUMN_TYPES = """
+        SELECT COLUMN_NAME, COLUMN_TYPE, CHARACTER_SET_NAME, COLLATION_NAME
+            FROM information_schema.COLUMNS
+            WHERE TABLE_SCHEMA = ? AND TABLE_NAME = ?
+    """;
+
     public static void serverConnect(String server1Val, String server2Val, String db1, String db2, Map<String, Object> options) {
     }
 
@@ -456,8 +513,13 @@ public class dbCompareUtils {
         if(options == null){
             options = new HashMap<>();
         }
-        int spanKeySize = (int) options.getOrDefault("span_key_size", DEFAULT_SPAN_KEY_SIZE);
         List<String> useIndexes = (List<String>) options.getOrDefault("use_indexes",null);
+        // 比较表在服务端通过SQL计算哈希，只能使用服务端支持的算法
+        RowHasher rowHasher = RowHasher.forName((String) options.getOrDefault("row_hasher", RowHasher.MD5));
+        if(rowHasher.sqlFunction() == null){
+            throw new SQLException(String.format("Row hasher %s is only supported by client-side engines.", rowHasher.name()));
+        }
+        checkRepairDirection(options);
         String direction = (String) options.getOrDefault("changes-for", "server1");
         boolean reverse = (boolean) options.getOrDefault("reverse", false);
 
@@ -466,9 +528,29 @@ public class dbCompareUtils {
             reporter.reportState("");
             reporter.reportState("");
         }
-        if(!(boolean) options.get("no_checksum_table")){
-            Long checksum1 = CheckSum(db1Conn, obj1);
-            Long checksum2 = CheckSum(db2Conn, obj2);
+        long chunkRows = ((Number) options.getOrDefault("chunk_rows", ChunkPlanner.DEFAULT_CHUNK_ROWS)).longValue();
+        // 按区间校验时只比较校验和不一致的区间，为null时比较整张表
+        boolean checksumChunks = !(boolean) options.get("no_checksum_table")
+                && CHECKSUM_CHUNK.equals(options.getOrDefault("checksum_mode", CHECKSUM_TABLE));
+        List<KeyRange> diffRanges = checksumChunks ? chunkChecksum(db1Conn, obj1, db2Conn, obj2, chunkRows) : null;
+        if(checksumChunks){
+            if(diffRanges.isEmpty()){
+                if(reporter != null){
+                    reporter.reportState("pass");
+                }
+                return null;
+            }
+            if(reporter != null){
+                reporter.reportState("FAIL");
+            }
+            if(!(boolean) options.getOrDefault("quiet", false)){
+                System.out.printf("%n# Chunks with differences in %s and %s: %d%n", obj1, obj2, diffRanges.size());
+            }
+        }
+        else if(!(boolean) options.get("no_checksum_table")){
+            ImmutablePair<Long, Long> checksums = onBothServers(() -> CheckSum(db1Conn, obj1), () -> CheckSum(db2Conn, obj2));
+            Long checksum1 = checksums.getLeft();
+            Long checksum2 = checksums.getRight();
 
             // 这里没有err，就用checksum1 == 0来判断了
             if(checksum1 == 0 || checksum2 == 0){
@@ -511,8 +593,8 @@ public class dbCompareUtils {
             }
         }
 
-        List<String> dataDiffs1 = new ArrayList<>();
-        List<String> dataDiffs2 = new ArrayList<>();
+        DiffSink.Summary dataDiffs1 = null;
+        DiffSink.Summary dataDiffs2 = null;
 
         if(reporter != null){
             reporter.reportObject("","- Find row differences");
@@ -520,37 +602,76 @@ public class dbCompareUtils {
             reporter.reportState("");
         }
 
-        // 这里还应该有个使用 用户输入的index的操作
-        setupCompare(db1Conn, db2Conn, obj1, obj2, spanKeySize, useIndexes);
-
-        String compareTblName = "compare_"+obj1;
-
-        // 填充比较表，并从每个表中检索行
-        List<String[]> tbl1Hash = makeSumRows(db1Conn, db1Conn.getCatalog(), compareTblName, obj1);
-        List<String[]> tbl2Hash = makeSumRows(db2Conn, db2Conn.getCatalog(), compareTblName, obj2);
-
-        // 计算交集，类似getCommonList
-        Set<String[]> in1Not2 = new HashSet<>(tbl1Hash);
-        Set<String[]> in2Not1 = new HashSet<>(tbl2Hash);
-        Set<String[]> same = new HashSet<>(in1Not2);
-        same.retainAll(in2Not1);
-
-        // 计算仅在set1中的元素
-        in1Not2.removeAll(same);
+        // span位数：固定值或按两张表的行数自动计算，两边必须使用同一个值
+        int spanKeySize = SpanSizing.resolve(options.getOrDefault("span_key_size", DEFAULT_SPAN_KEY_SIZE),
+                ((Number) options.getOrDefault("span_rows_target", SpanSizing.DEFAULT_ROWS_PER_SPAN)).longValue(),
+                db1Conn, obj1, db2Conn, obj2);
+        if(!(boolean) options.getOrDefault("quiet", false)){
+            System.out.printf("%n# Span key size for %s and %s: %d%n", obj1, obj2, spanKeySize);
+        }
 
-        // 计算仅在set2中的元素
-        in2Not1.removeAll(same);
+        // 关闭时不创建比较表，汇总和明细比较都直接在源表上计算
+        boolean useCompareTable = (boolean) options.getOrDefault("compare_table", true);
 
-        if(!in1Not2.isEmpty() || !in2Not1.isEmpty() ){
-            List<String> tableDiffs1 = new ArrayList<>();
-            List<String> tableDiffs2 = new ArrayList<>();
-            for(String[] str : in1Not2){
-                tableDiffs1.add(str[0]);
-            }
+        // 这里还应该有个使用 用户输入的index的操作
+        setupCompare(db1Conn, db2Conn, obj1, obj2, spanKeySize, useIndexes, useCompareTable);
+
+        // 比较表按主键区间分批填充，每条INSERT ... SELECT只读取一个区间
+        String compareTbl1 = String.format(COMPARE_TABLE_NAME, obj1);
+        String compareTbl2 = String.format(COMPARE_TABLE_NAME, obj2);
+
+        // 明细比较读取的来源；直接读源表时按区间校验后只读不一致的区间，否则整张表读一遍
+        List<KeyRange> sourceRanges = diffRanges != null ? diffRanges : List.of(KeyRange.ALL);
+        CompareSource compareSource1 = useCompareTable ? CompareSource.table(db1Conn.getCatalog() + "." + compareTbl1)
+                : CompareSource.direct(directSource(db1Conn.getCatalog(), obj1, rowHasher, spanKeySize), sourceRanges);
+        CompareSource compareSource2 = useCompareTable ? CompareSource.table(db2Conn.getCatalog() + "." + compareTbl2)
+                : CompareSource.direct(directSource(db2Conn.getCatalog(), obj2, rowHasher, spanKeySize), sourceRanges);
+
+        // 两边汇总不一致的span
+        List<String> tableDiffs1 = new ArrayList<>();
+        List<String> tableDiffs2 = new ArrayList<>();
+
+        if(!useCompareTable){
+            // 一次GROUP BY得到每个span的汇总，结果与比较表的汇总格式相同
+            ImmutablePair<List<HashSummaryTable>, List<HashSummaryTable>> sums = onBothServers(
+                    () -> directSumRows(db1Conn, db1Conn.getCatalog(), obj1, rowHasher, spanKeySize, chunkRows, diffRanges),
+                    () -> directSumRows(db2Conn, db2Conn.getCatalog(), obj2, rowHasher, spanKeySize, chunkRows, diffRanges));
+
+            ImmutablePair<List<String>, List<String>> spanDiffs = SpanSummaries.diff(sums.getLeft(), sums.getRight());
+            tableDiffs1.addAll(spanDiffs.getLeft());
+            tableDiffs2.addAll(spanDiffs.getRight());
+        }
+        else if((boolean) options.getOrDefault("span_tree", true)){
+            // 填充比较表后从根开始逐层比较前缀汇总，只展开不一致的子树
+            onBothServers(() -> {
+                fillCompareTable(db1Conn, db1Conn.getCatalog(), compareTbl1, obj1, rowHasher, spanKeySize, chunkRows, diffRanges);
+                return null;
+            }, () -> {
+                fillCompareTable(db2Conn, db2Conn.getCatalog(), compareTbl2, obj2, rowHasher, spanKeySize, chunkRows, diffRanges);
+                return null;
+            });
+
+            ImmutablePair<Set<String>, Set<String>> spanDiffs = SpanTree.diffSpans(
+                    new SpanTree.SqlSource(db1Conn, db1Conn.getCatalog(), compareTbl1, spanKeySize),
+                    new SpanTree.SqlSource(db2Conn, db2Conn.getCatalog(), compareTbl2, spanKeySize),
+                    spanKeySize,
+                    (int) options.getOrDefault("span_tree_level_digits", SpanTree.DEFAULT_LEVEL_DIGITS));
+            tableDiffs1.addAll(spanDiffs.getLeft());
+            tableDiffs2.addAll(spanDiffs.getRight());
+        }
+        else {
+            // 填充比较表，并从每个表中检索行
+            ImmutablePair<List<HashSummaryTable>, List<HashSummaryTable>> sums = onBothServers(
+                    () -> makeSumRows(db1Conn, db1Conn.getCatalog(), compareTbl1, obj1, rowHasher, spanKeySize, chunkRows, diffRanges),
+                    () -> makeSumRows(db2Conn, db2Conn.getCatalog(), compareTbl2, obj2, rowHasher, spanKeySize, chunkRows, diffRanges));
+
+            // 按span归并两边的汇总，汇总相同的span直接跳过，类似getCommonList
+            ImmutablePair<List<String>, List<String>> spanDiffs = SpanSummaries.diff(sums.getLeft(), sums.getRight());
+            tableDiffs1.addAll(spanDiffs.getLeft());
+            tableDiffs2.addAll(spanDiffs.getRight());
+        }
 
-            for(String[] str : in2Not1){
-                tableDiffs2.add(str[0]);
-            }
+        if(!tableDiffs1.isEmpty() || !tableDiffs2.isEmpty() ){
 
             Set<String> changedRows = new HashSet<>(tableDiffs1);
             Set<String> extra2 = new HashSet<>(tableDiffs2);
@@ -574,11 +695,13 @@ public class dbCompareUtils {
             // 这里是后续的整个_generate_data_diff_output
 
             if(direction.equals("server1") || reverse){
-                dataDiffs1 = generateDataDiffOutput(new ImmutableTriple<>(changedRows, extra1, extra2), db1Conn, db2Conn,obj1, obj2, useIndexes, options);
+                dataDiffs1 = generateDataDiffOutput(new ImmutableTriple<>(changedRows, extra1, extra2), db1Conn, db2Conn,obj1, obj2, compareSource1, compareSource2, useIndexes, options,
+                        "server1", (DataSource) options.get("repair_target"));
             }
 
             if(direction.equals("server2") || reverse){
-                dataDiffs2 = generateDataDiffOutput(new ImmutableTriple<>(changedRows, extra2, extra1), db2Conn, db1Conn, obj2, obj1, useIndexes, options);
+                dataDiffs2 = generateDataDiffOutput(new ImmutableTriple<>(changedRows, extra2, extra1), db2Conn, db1Conn, obj2, obj1, compareSource2, compareSource1, useIndexes, options,
+                        "server2", null);
             }
 
             // common是span的集合，span来自于pk_hash，即使span相同，pk_hash很可能是不同的，pk_hash的变动会影响行数据的hash，反之则不一定
@@ -596,7 +719,7 @@ public class dbCompareUtils {
         }
 
         if (reporter != null) {
-            if (!dataDiffs1.isEmpty() || !dataDiffs2.isEmpty()) {
+            if (dataDiffs1 != null || dataDiffs2 != null) {
                 reporter.reportState("FAIL");
             } else {
                 reporter.reportState("pass");
@@ -605,429 +728,553 @@ public class dbCompareUtils {
 
         DiffServer diffServer = new DiffServer();
         if (direction.equals("server1") || reverse) {
-            diffServer.setFirst(dataDiffs1.isEmpty() ? null : dataDiffs1);
+            diffServer.setFirst(dataDiffs1);
         }
         if (direction.equals("server2") || reverse) {
-            diffServer.setSecond(dataDiffs2.isEmpty() ? null : dataDiffs2);
+            diffServer.setSecond(dataDiffs2);
         }
 
         return diffServer;
     }
 
-    private static List<String> generateDataDiffOutput(
+    /**
+     * 直接修复只支持server1的方向，即以服务器1为准修复服务器2
+     * changes-for=server2会在服务器1上执行DELETE/UPDATE/INSERT；reverse时第一遍已经修改了服务器2，
+     * 第二遍还按修改前的span集合删除服务器1独有的行，服务器2独有的行也已经被删掉，无法再补回。
+     * @throws IllegalArgumentException repair_mode为apply时指定了reverse或changes-for=server2
+     */
+    static void checkRepairDirection(Map<String, Object> options) {
+        if(!REPAIR_APPLY.equals(options.getOrDefault("repair_mode", REPAIR_PRINT))){
+            return;
+        }
+        if((boolean) options.getOrDefault("reverse", false)
+                || "server2".equals(options.getOrDefault("changes-for", "server1"))){
+            throw new IllegalArgumentException("repair_mode为apply时只能修复服务器2，不支持reverse和changes-for=server2");
+        }
+    }
+
+    /**
+     * 取回不一致的行并输出差异和修复语句
+     * 先只收集两边差异行的主键（见collectDiffKeys），再按批从原表取回行：每批写出差异记录，
+     * 生成修复语句或直接执行修复，处理完就丢弃，内存里不会同时保留所有差异行。
+     * 设置了output_dir时差异记录和修复语句边生成边写入文件（见DiffSink），设置了repair_plan_dir时修复语句写入修复计划（见RepairPlan），
+     * 否则修复语句直接打印
+     * @param direction 修复的方向，server1表示修复dbConn2上的表，用于区分输出文件
+     * @return 差异的条数和输出文件，没有差异时返回null
+     */
+    private static DiffSink.Summary generateDataDiffOutput(
             ImmutableTriple<Set<String>, Set<String>, Set<String>> immutableTriple,
             Connection dbConn1, Connection dbConn2,
-            String obj1, String obj2, List<String> useIndexes, Map<String, Object> options) throws SQLException {
+            String obj1, String obj2, CompareSource compareSource1, CompareSource compareSource2,
+            List<String> useIndexes, Map<String, Object> options,
+            String direction, DataSource repairTarget) throws SQLException {
 
         String difftype = (String) options.getOrDefault("difftype", "unified");
         String fmt = (String) options.getOrDefault("format", "grid");
         boolean compact_diff = (boolean) options.getOrDefault("compact", false);
+        int spanBatchSize = Math.max((int) options.getOrDefault("span_batch_size", DEFAULT_SPAN_BATCH_SIZE), 1);
+        int keyBatchSize = Math.max((int) options.getOrDefault("key_batch_size", KeyFetcher.DEFAULT_BATCH_SIZE), 1);
 
-        Set<String> changedRows = immutableTriple.getLeft();
-        Set<String> extra1 = immutableTriple.getMiddle();
-        Set<String> extra2 = immutableTriple.getRight();
-
-        List<String> dataDiffs = new ArrayList<>();
-
-        if(changedRows.size() > 0){
-
-            dataDiffs.add("# Data differences found among rows:");
-
-            ImmutablePair<ImmutablePair<List<Map<String, Object>>, List<Map<String, Object>>>, ImmutablePair<List<Map<String, Object>>, List<Map<String, Object>>>>
-                    tblRow = getChangedRowsSpan(dbConn1, obj1, dbConn2, obj2, changedRows, useIndexes);
-
-            ImmutablePair<List<Map<String, Object>>, List<Map<String, Object>>> tbl1Rows = tblRow.getLeft();
-            ImmutablePair<List<Map<String, Object>>, List<Map<String, Object>>> tbl2Rows = tblRow.getRight();
-
-
-        }
-
-        if(extra1.size() > 0){
-            List<Map<String, Object>> resultList = getRowSpan(obj1,extra1,dbConn1);
-            extraIn1.addAll(resultList);
-        }
-
-        if(extra2.size() > 0){
-            List<Map<String, Object>> resultList = getRowSpan(obj2,extra2,dbConn2);
-            extraIn2.addAll(resultList);
+        // 只有主键：变更行、表1独有（需要INSERT）、表2独有（需要DELETE）
+        DiffKeys keys = collectDiffKeys(dbConn1, compareSource1, dbConn2, compareSource2, immutableTriple, spanBatchSize);
+        if(keys.isEmpty()){
+            return null;
         }
-
-        // 如果changedIn1不为空 表示需要 update table2 ，extraIn1 需要table2 insert， extraIn2 需要table2 delete
-        if(!changedIn1.isEmpty() || !extraIn1.isEmpty() || !extraIn2.isEmpty()){
-            List<String> fixSqlStatements = generateFixSqlStatements(changedIn1, extraIn1, extraIn2, obj2);
-
-            for(String sql : fixSqlStatements) {
-                System.out.println(sql);
+        boolean apply = REPAIR_APPLY.equals(options.getOrDefault("repair_mode", REPAIR_PRINT));
+
+        // 差异记录写入output_dir；修复语句写入repair_plan_dir下的修复计划，或output_dir，都没有设置时直接打印
+        String outputDir = (String) options.get("output_dir");
+        String planDir = apply ? null : (String) options.get("repair_plan_dir");
+        long maxFileBytes = ((Number) options.getOrDefault("output_file_bytes", DiffSink.DEFAULT_MAX_FILE_BYTES)).longValue();
+        int chunkStatements = (int) options.getOrDefault("repair_plan_chunk_statements", RepairPlan.DEFAULT_CHUNK_STATEMENTS);
+        String name = dbConn2.getCatalog() + "." + obj2 + "." + direction;
+        String table1 = dbConn1.getCatalog() + "." + obj1;
+        String table2 = dbConn2.getCatalog() + "." + obj2;
+        List<String> pkColumns = PRIMARY_KEYS.get();
+        try(DiffSink sink = outputDir == null ? null : new DiffSink(Path.of(outputDir), name, maxFileBytes);
+            RepairPlan.Writer plan = planDir == null ? null : RepairPlan.create(Path.of(planDir, name + RepairPlan.SUFFIX), chunkStatements)){
+
+            DiffBatches batches;
+            int sliceRows = keyBatchSize;
+            if(apply){
+                RepairApplier applier = repairApplier(dbConn2, obj2, repairTarget, options);
+                batches = new DiffBatches(pkColumns, sink, applier, repairTarget, dbConn2);
+                // 每批至少够所有写入连接各提交一次，否则并行写入用不上
+                sliceRows = Math.max(keyBatchSize, applier.getCommitRows() * applier.getWriters());
+            }
+            else{
+                Consumer<String> out = plan != null ? plan::append : sink != null ? sink::writeRepair : System.out::println;
+                batches = new DiffBatches(pkColumns, sink,
+                        new RepairSqlWriter(obj2, pkColumns, RepairSqlWriter.maxAllowedPacket(dbConn2)), out);
             }
-        }
-
-        return dataDiffs;
-    }
 
-    private static ImmutablePair<ImmutablePair<List<Map<String, Object>>, List<Map<String, Object>>>, ImmutablePair<List<Map<String, Object>>, List<Map<String, Object>>>> getChangedRowsSpan(
-            Connection db1Conn, String obj1, Connection db2Conn, String obj2, Set<String> changedRows, List<String> useIndexes) throws SQLException {
-
-        List<SpanData> fullSpanData1 = new ArrayList<>();
-        List<SpanData> fullSpanData2 = new ArrayList<>();
-
-        String qTblName1 = "compare_" + obj1;
-        String qTblName2 = "compare_" + obj2;
-        for(String str: changedRows){
-            try(PreparedStatement statement = db1Conn.prepareStatement(
-                    String.format(DIFF_COMPARE,db1Conn.getCatalog(),qTblName1,str));){
-                statement.setFetchSize(100);
-                statement.setFetchDirection(ResultSet.FETCH_FORWARD);
-                try(ResultSet resultSet = statement.executeQuery();){
-                    List<String[]> spanRowList = new ArrayList<>();
-                    Set<RowSignature> cmpSigns = new HashSet<>();
-                    while(resultSet.next()){
-                        String[] spanRow = new String[3+PRIMARY_KEYS.size()];
-                        for(int i =1; i<=3+PRIMARY_KEYS.size();i++){
-                            spanRow[i-1] = resultSet.getString(i);
-                        }
-                        spanRowList.add(spanRow);
-                        RowSignature signature = new RowSignature(
-                                resultSet.getString(1),  // compare_sign
-                                resultSet.getString(2)   // pk_hash
-                        );
-                        cmpSigns.add(signature);
+            // 先删除表2中多余的行，再更新变更行，最后插入缺少的行
+            for (List<String[]> slice : slices(keys.extra(), sliceRows)) {
+                batches.deletes(KeyFetcher.fetch(dbConn2, table2, pkColumns, slice, keyBatchSize).values());
+            }
+            for (List<String[]> slice : slices(keys.changed(), sliceRows)) {
+                // 两边同时取回这一批变更行，逐列比较，只保留实际不同的列
+                ImmutablePair<Map<List<String>, Map<String, Object>>, Map<List<String>, Map<String, Object>>> rows = onBothServers(
+                        () -> KeyFetcher.fetch(dbConn1, table1, pkColumns, slice, keyBatchSize),
+                        () -> KeyFetcher.fetch(dbConn2, table2, pkColumns, slice, keyBatchSize));
+                List<RowDiff> diffs = new ArrayList<>(rows.getLeft().size());
+                for (Map.Entry<List<String>, Map<String, Object>> entry : rows.getLeft().entrySet()) {
+                    RowDiff diff = RowDiff.compare(entry.getValue(), rows.getRight().get(entry.getKey()), pkColumns);
+                    if (diff != null) {
+                        diffs.add(diff);
                     }
-                    fullSpanData1.add(new SpanData(spanRowList,cmpSigns));
                 }
+                batches.updates(diffs);
+            }
+            for (List<String[]> slice : slices(keys.missing(), sliceRows)) {
+                batches.upserts(KeyFetcher.fetch(dbConn1, table1, pkColumns, slice, keyBatchSize).values());
+            }
+            // 全部生成后才写结束行，中途出错的计划不能重放
+            if(plan != null){
+                plan.finish();
             }
-        }
-
-
-        for(String str: changedRows){
-            try(PreparedStatement statement = db2Conn.prepareStatement(String.format(DIFF_COMPARE,db2Conn.getCatalog(),qTblName2,str));){
-                statement.setFetchSize(100);
-                statement.setFetchDirection(ResultSet.FETCH_FORWARD);
-                try(ResultSet resultSet = statement.executeQuery();){
-                    List<String[]> spanRowList = new ArrayList<>();
-                    Set<RowSignature> cmpSigns = new HashSet<>();
-                    while(resultSet.next()){
-                        String[] spanRow = new String[3+PRIMARY_KEYS.size()];
 
-                        for(int i =1; i<=3+PRIMARY_KEYS.size();i++){
-                            spanRow[i-1] = resultSet.getString(i);
-                        }
-                        spanRowList.add(spanRow);
-                        RowSignature signature = new RowSignature(
-                                resultSet.getString(1),  // compare_sign
-                                resultSet.getString(2)   // pk_hash
-                        );
-                        cmpSigns.add(signature);
-                    }
-                    fullSpanData2.add(new SpanData(spanRowList,cmpSigns));
+            // 取回时行已经不存在，或变更行只是哈希冲突
+            if(batches.diffRows == 0){
+                return null;
+            }
+            if(apply){
+                System.out.printf("# Applied %d repair rows to %s%n", batches.applied, table2);
+                RepairThrottle throttle = batches.applier.getThrottle();
+                if (throttle != null && throttle.getPauses() > 0) {
+                    System.out.printf("# Paused %d times (%d ms) for replica lag%n", throttle.getPauses(), throttle.getPausedMillis());
                 }
             }
+
+            List<Path> diffFiles = sink != null ? sink.summary().diffFiles() : List.of();
+            List<Path> repairFiles = plan != null ? List.of(plan.path()) : sink != null ? sink.summary().repairFiles() : List.of();
+            return new DiffSink.Summary(batches.diffRows, batches.statements, batches.changedColumns, diffFiles, repairFiles);
+        } catch (IOException | UncheckedIOException e) {
+            throw new SQLException("写入差异文件失败: " + e.getMessage(), e);
         }
+    }
 
+    /**
+     * 两边差异行的主键，顺序与主键列相同
+     * @param changed 两边都有但内容不同
+     * @param missing 只在表1中，需要INSERT到表2
+     * @param extra 只在表2中，需要从表2 DELETE
+     */
+    private record DiffKeys(List<String[]> changed, List<String[]> missing, List<String[]> extra) {
 
-        List<Map<String,Object>> changedIn1 = new ArrayList<>();
-        List<Map<String,Object>> changedIn2 = new ArrayList<>();
-        List<Map<String,Object>> extraIn1 = new ArrayList<>();
-        List<Map<String,Object>> extraIn2 = new ArrayList<>();
+        boolean isEmpty() {
+            return changed.isEmpty() && missing.isEmpty() && extra.isEmpty();
+        }
+    }
 
-        for (int pos = 0; pos < fullSpanData1.size(); pos++) {
-            SpanData spanData1 = fullSpanData1.get(pos);
-            SpanData spanData2 = fullSpanData2.get(pos);
+    /**
+     * 按span找出两边不一致的行，只收集主键
+     * 两边都有的span逐行比较签名，另一边也有同一pk_hash的是变更行，否则是多出的行；只在一边的span中的行都是多出的行。
+     * 每边的变更span和额外span在同一遍中取回，直接读源表时每个区间只读一次
+     */
+    private static DiffKeys collectDiffKeys(Connection db1Conn, CompareSource compareSource1, Connection db2Conn, CompareSource compareSource2,
+                                            ImmutableTriple<Set<String>, Set<String>, Set<String>> spans,
+                                            int spanBatchSize) throws SQLException {
+        Set<String> changedSpans = spans.getLeft();
+        Set<String> extraSpans1 = spans.getMiddle();
+        Set<String> extraSpans2 = spans.getRight();
+
+        List<String[]> changed = new ArrayList<>();
+        List<String[]> missing = new ArrayList<>();
+        List<String[]> extra = new ArrayList<>();
+
+        Set<String> spans1 = new HashSet<>(changedSpans);
+        spans1.addAll(extraSpans1);
+        Set<String> spans2 = new HashSet<>(changedSpans);
+        spans2.addAll(extraSpans2);
+
+        // 两边同时取回各自所有不一致span的比较行，再按span对齐
+        ImmutablePair<Map<String, SpanData>, Map<String, SpanData>> spanRows = onBothServers(
+                () -> spans1.isEmpty() ? Map.of() : fetchSpanRows(db1Conn, compareSource1, spans1, spanBatchSize),
+                () -> spans2.isEmpty() ? Map.of() : fetchSpanRows(db2Conn, compareSource2, spans2, spanBatchSize));
+
+        for (String span : changedSpans) {
+            SpanData spanData1 = spanRows.getLeft().getOrDefault(span, EMPTY_SPAN);
+            SpanData spanData2 = spanRows.getRight().getOrDefault(span, EMPTY_SPAN);
 
             // 确定表1和表2的不同行（排除未更改的行）
             Set<RowSignature> diffRowsSign1 = calculateDifference(spanData1.getSignatures(), spanData2.getSignatures());
             Set<RowSignature> diffRowsSign2 = calculateDifference(spanData2.getSignatures(), spanData1.getSignatures());
 
             // 提取比较签名中的pk_hash
-            Set<String> diffPkHash1 = extractPkHashes(diffRowsSign1);
-            Set<String> diffPkHash2 = extractPkHashes(diffRowsSign2);
-
-
-            for(String[] res :spanData1.getRowData()){
-                if(diffRowsSign1.contains(new RowSignature(res[0],res[1]))){
-                    String[] pks = Arrays.copyOfRange(res, 3, res.length);
+            Set<Signature128> diffPkHash1 = extractPkHashes(diffRowsSign1);
+            Set<Signature128> diffPkHash2 = extractPkHashes(diffRowsSign2);
 
-                    StringBuilder whereClause = new StringBuilder();
-                    for (int i = 0; i < PRIMARY_KEYS.size(); i++) {
-                        if (i > 0) {
-                            whereClause.append(" AND ");
-                        }
-                        whereClause.append(PRIMARY_KEYS.get(i))
-                                .append(" = '")
-                                .append(pks[i])
-                                .append("'");
-                    }
-                    String whereClauseStr = whereClause.toString();
-
-                    String query = String.format(QUERY_COMPARE_SPAN,
-                            db1Conn.getCatalog(),
-                            obj1,
-                            whereClauseStr);
-
-                    try(PreparedStatement Statement = db1Conn.prepareStatement(query);
-                        ResultSet needChangeRes = Statement.executeQuery()){
-                        // 处理查询结果并分类
-                        if (needChangeRes.next()) {
-                            Map<String, Object> rowData = convertResultSetToMap(needChangeRes);
-
-                            if (diffPkHash2.contains(res[1])) {
-                                // 存储原始变更行（需要UPDATE）
-                                changedIn1.add(rowData);
-                            } else {
-                                // 存储原始额外行（需要insert）
-                                extraIn1.add(rowData);
-                            }
-                        }
-                    }
+            for (RowSignature res : spanData1.getRowData()) {
+                if (diffRowsSign1.contains(res)) {
+                    // 变更行需要UPDATE，额外行需要INSERT
+                    (diffPkHash2.contains(res.getPkHash()) ? changed : missing).add(res.getPkValues());
                 }
             }
-
-            for(String[] res :spanData2.getRowData()){
-                if(diffRowsSign2.contains(new RowSignature(res[0],res[1]))){
-                    String[] pks = Arrays.copyOfRange(res, 3, res.length );
-
-                    StringBuilder whereClause = new StringBuilder();
-                    for (int i = 0; i < PRIMARY_KEYS.size(); i++) {
-                        if (i > 0) {
-                            whereClause.append(" AND ");
-                        }
-                        whereClause.append(PRIMARY_KEYS.get(i))
-                                .append(" = '")
-                                .append(pks[i])
-                                .append("'");
-                    }
-                    String whereClauseStr = whereClause.toString();
-
-                    String query = String.format(QUERY_COMPARE_SPAN,
-                            db2Conn.getCatalog(),
-                            obj2,
-                            whereClauseStr);
-
-                    try(PreparedStatement Statement = db1Conn.prepareStatement(query);
-                        ResultSet needChangeRes = Statement.executeQuery();){
-                        // 处理查询结果并分类
-                        if (needChangeRes.next()) {
-                            Map<String, Object> rowData = convertResultSetToMap(needChangeRes);
-
-                            if (diffPkHash1.contains(res[1])) {
-                                // 存储原始行（需要DELETE）
-                                changedIn2.add(rowData);
-                            } else {
-                                // 存储原始行（需要DELETE）
-                                extraIn2.add(rowData);
-                            }
-                        }
-                    }
+            for (RowSignature res : spanData2.getRowData()) {
+                // 变更行按表1的主键取回两边的行，这里只需要表2的额外行
+                if (diffRowsSign2.contains(res) && !diffPkHash1.contains(res.getPkHash())) {
+                    extra.add(res.getPkValues());
                 }
             }
+        }
 
+        // 只在一边的span中的行都是多出的行
+        for (String span : extraSpans1) {
+            for (RowSignature signature : spanRows.getLeft().getOrDefault(span, EMPTY_SPAN).getRowData()) {
+                missing.add(signature.getPkValues());
+            }
+        }
+        for (String span : extraSpans2) {
+            for (RowSignature signature : spanRows.getRight().getOrDefault(span, EMPTY_SPAN).getRowData()) {
+                extra.add(signature.getPkValues());
+            }
         }
+        return new DiffKeys(changed, missing, extra);
+    }
 
-        return new ImmutablePair<>(new ImmutablePair<>(changedIn1,extraIn1),new ImmutablePair<>(changedIn2,extraIn2));
+    private static List<List<String[]>> slices(List<String[]> keys, int size) {
+        List<List<String[]>> slices = new ArrayList<>();
+        for (int from = 0; from < keys.size(); from += size) {
+            slices.add(keys.subList(from, Math.min(from + size, keys.size())));
+        }
+        return slices;
     }
 
     /**
-     * 根据变更数据生成SQL修复语句
-     * @param changedIn1 需要更新的变更行（表1到表2）
-     * @param extraIn1 需要删除的额外行（表1独有）
-     * @param extraIn2 需要插入的额外行（表2独有）
-     * @param table2 容灾表名
-     * @return SQL修复语句列表
+     * 逐批接收取回的差异行：写差异记录，再生成修复语句或直接执行修复，只保留条数
+     * 修复语句先按主键批量删除多余的行，变更行按主键只UPDATE不同的列，
+     * 缺少的行合并成多行的INSERT ... ON DUPLICATE KEY UPDATE，每条语句不超过目标库的max_allowed_packet
      */
-    private static List<String> generateFixSqlStatements(List<Map<String, Object>> changedIn1,
-                                                         List<Map<String, Object>> extraIn1,
-                                                         List<Map<String, Object>> extraIn2,
-                                                         String table2) {
-        List<String> fixSqlList = new ArrayList<>();
-
-        // 生成UPDATE语句（表1变更到表2）
-        for (Map<String, Object> rowData : changedIn1) {
-            String updateSql = generateUpdateSql(table2, rowData);
-            fixSqlList.add(updateSql);
+    private static final class DiffBatches {
+
+        private final List<String> pkColumns;
+        private final DiffSink sink;
+        private final RepairSqlWriter sqlWriter;
+        private final Consumer<String> out;
+        private final RepairApplier applier;
+        private final DataSource repairTarget;
+        private final Connection targetConn;
+        private final Map<String, Long> changedColumns = new TreeMap<>();
+        private long diffRows;
+        private long statements;
+        private long applied;
+
+        /**
+         * 生成修复语句，逐条交给out
+         */
+        DiffBatches(List<String> pkColumns, DiffSink sink, RepairSqlWriter sqlWriter, Consumer<String> out) {
+            this(pkColumns, sink, sqlWriter, out, null, null, null);
         }
 
-        // 生成DELETE语句（删除表2中多余的行）
-        for (Map<String, Object> rowData : extraIn1) {
-            String insertSql = generateInsertSql(table2, rowData);
-            fixSqlList.add(insertSql);
+        /**
+         * 直接执行修复
+         * @param repairTarget 目标库开启了rewriteBatchedStatements的连接池，按repair_writers并行执行；
+         *                     为null时在目标表的比较连接targetConn上依次执行
+         */
+        DiffBatches(List<String> pkColumns, DiffSink sink, RepairApplier applier, DataSource repairTarget, Connection targetConn) {
+            this(pkColumns, sink, null, null, applier, repairTarget, targetConn);
         }
 
-        // 生成INSERT语句（向表2插入缺少的行）
-        for (Map<String, Object> rowData : extraIn2) {
-            String deleteSql = generateDeleteSql(table2, rowData);
-            fixSqlList.add(deleteSql);
+        private DiffBatches(List<String> pkColumns, DiffSink sink, RepairSqlWriter sqlWriter, Consumer<String> out,
+                            RepairApplier applier, DataSource repairTarget, Connection targetConn) {
+            this.pkColumns = pkColumns;
+            this.sink = sink;
+            this.sqlWriter = sqlWriter;
+            this.out = out;
+            this.applier = applier;
+            this.repairTarget = repairTarget;
+            this.targetConn = targetConn;
         }
 
-        return fixSqlList;
-    }
+        /**
+         * 表2中多余的行
+         */
+        void deletes(Collection<Map<String, Object>> rows) throws SQLException {
+            List<Object[]> keys = new ArrayList<>(rows.size());
+            for (Map<String, Object> row : rows) {
+                Object[] key = keyOf(row, pkColumns);
+                keys.add(key);
+                if (sink != null) {
+                    sink.writeDiff(DiffSink.EXTRA, key);
+                }
+            }
+            diffRows += keys.size();
+            if (sqlWriter != null) {
+                sqlWriter.writeDeletes(keys, this::emit);
+            } else if (!keys.isEmpty()) {
+                applied += apply(List.of(), List.of(), keys);
+            }
+        }
 
-    /**
-     * 生成UPDATE SQL语句
-     */
-    private static String generateUpdateSql(String tableName, Map<String, Object> rowData) {
-        StringBuilder sql = new StringBuilder("UPDATE ");
-        sql.append(tableName).append(" SET ");
-
-        boolean first = true;
-        StringBuilder setClause = new StringBuilder();
-        StringBuilder whereClause = new StringBuilder();
-
-        // 构建SET子句
-        for (Map.Entry<String, Object> entry : rowData.entrySet()) {
-            String columnName = entry.getKey();
-            Object value = entry.getValue();
-
-            // 跳过主键列，主键列用于WHERE条件
-            if (!PRIMARY_KEYS.contains(columnName)) {
-                if (!first) {
-                    setClause.append(", ");
+        /**
+         * 两边内容不同的行和不同的列
+         */
+        void updates(List<RowDiff> diffs) throws SQLException {
+            for (RowDiff diff : diffs) {
+                if (sink != null) {
+                    sink.writeDiff(DiffSink.CHANGED, keyOf(diff.source(), pkColumns), diff.columns());
                 }
-                setClause.append(columnName).append(" = ");
-                if (value == null) {
-                    setClause.append("NULL");
-                } else {
-                    setClause.append("'").append(value.toString()).append("'");
+            }
+            RowDiff.countColumns(diffs).forEach((column, rows) -> changedColumns.merge(column, rows, Long::sum));
+            diffRows += diffs.size();
+            if (sqlWriter != null) {
+                sqlWriter.writeUpdates(diffs, this::emit);
+            } else if (!diffs.isEmpty()) {
+                applied += apply(diffs, List.of(), List.of());
+            }
+        }
+
+        /**
+         * 表2中缺少的行
+         */
+        void upserts(Collection<Map<String, Object>> rows) throws SQLException {
+            List<Map<String, Object>> upserts = new ArrayList<>(rows);
+            if (sink != null) {
+                for (Map<String, Object> row : upserts) {
+                    sink.writeDiff(DiffSink.MISSING, keyOf(row, pkColumns));
                 }
-                first = false;
+            }
+            diffRows += upserts.size();
+            if (sqlWriter != null) {
+                sqlWriter.writeUpserts(upserts, this::emit);
+            } else if (!upserts.isEmpty()) {
+                applied += apply(List.of(), upserts, List.of());
             }
         }
 
-        // 构建WHERE子句（使用主键）
-        buildWhereClauseFromPrimaryKeys(rowData, whereClause);
+        private void emit(String sql) {
+            out.accept(sql);
+            statements++;
+        }
+
+        private long apply(List<RowDiff> updates, List<Map<String, Object>> upserts, List<Object[]> deleteKeys) throws SQLException {
+            return repairTarget != null ? applier.apply(repairTarget, updates, upserts, deleteKeys)
+                    : applier.apply(targetConn, updates, upserts, deleteKeys);
+        }
+    }
 
-        sql.append(setClause).append(" WHERE ").append(whereClause);
-        return sql.toString();
+    private static Object[] keyOf(Map<String, Object> row, List<String> pkColumns) {
+        Object[] key = new Object[pkColumns.size()];
+        for (int i = 0; i < key.length; i++) {
+            key[i] = row.get(pkColumns.get(i));
+        }
+        return key;
     }
 
     /**
-     * 生成DELETE SQL语句
+     * 直接在目标表上执行修复的RepairApplier，多批之间共用同一个节奏控制
+     * @param repairTarget 目标库的写入连接池，为null时在目标表的比较连接上执行
      */
-    private static String generateDeleteSql(String tableName, Map<String, Object> rowData) {
-        StringBuilder sql = new StringBuilder("DELETE FROM ");
-        sql.append(tableName);
-
-        StringBuilder whereClause = new StringBuilder();
-        buildWhereClauseFromPrimaryKeys(rowData, whereClause);
+    private static RepairApplier repairApplier(Connection targetConn, String table2, DataSource repairTarget,
+                                               Map<String, Object> options) throws SQLException {
+        RepairApplier applier = new RepairApplier(targetConn.getCatalog() + "." + table2, PRIMARY_KEYS.get());
+        applier.setWriters((int) options.getOrDefault("repair_writers", 1));
+        int commitRows = (int) options.getOrDefault("repair_commit_rows", RepairApplier.DEFAULT_COMMIT_ROWS);
+        applier.setCommitRows(commitRows);
+
+        // toggle_binlog关闭了比较连接的binlog，写入连接池的连接也同样关闭，两个方向的修复都不写binlog
+        applier.setDisableBinlog(repairTarget != null && (boolean) options.getOrDefault("toggle_binlog", false)
+                && isBinlogEnabled(targetConn));
+
+        // 修复的会话不写binlog时不会复制到从库，不需要控制节奏
+        boolean replicated = repairTarget != null ? !applier.isDisableBinlog() : isSessionBinlogEnabled(targetConn);
+        if (options.get("lag_probe") instanceof LagProbe probe && replicated) {
+            applier.setThrottle(new RepairThrottle(probe,
+                    ((Number) options.getOrDefault("repair_max_lag", RepairThrottle.DEFAULT_MAX_LAG_MILLIS)).longValue(),
+                    ((Number) options.getOrDefault("repair_resume_lag", RepairThrottle.DEFAULT_RESUME_LAG_MILLIS)).longValue(),
+                    (int) options.getOrDefault("repair_min_batch", RepairThrottle.DEFAULT_MIN_BATCH), commitRows));
+        }
+        return applier;
+    }
 
-        sql.append(" WHERE ").append(whereClause);
-        return sql.toString();
+    /**
+     * 只访问一台服务器的操作，在onBothServers中与另一台服务器上的操作同时执行
+     */
+    @FunctionalInterface
+    private interface ServerTask<T> {
+        T call() throws SQLException;
     }
 
     /**
-     * 生成INSERT SQL语句
+     * 两台服务器上的操作同时执行，都完成后一起返回结果
+     * side1在当前线程执行，side2在另一个线程执行，两边只使用各自的连接。
+     * 当前表的主键和列是ThreadLocal，另一个线程执行前先复制一份；
+     * 任一边出错时也会等另一边结束，避免调用方关闭连接时还有查询在执行
      */
-    private static String generateInsertSql(String tableName, Map<String, Object> rowData) {
-        StringBuilder columns = new StringBuilder();
-        StringBuilder values = new StringBuilder();
-
-        boolean first = true;
-        for (Map.Entry<String, Object> entry : rowData.entrySet()) {
-            if (!first) {
-                columns.append(", ");
-                values.append(", ");
-            }
+    private static <A, B> ImmutablePair<A, B> onBothServers(ServerTask<A> side1, ServerTask<B> side2) throws SQLException {
+        List<String> primaryKeys = new ArrayList<>(PRIMARY_KEYS.get());
+        List<String> compareColumns = new ArrayList<>(COMPARE_COLUMNS.get());
 
-            columns.append(entry.getKey());
-            Object value = entry.getValue();
-            if (value == null) {
-                values.append("NULL");
-            } else {
-                values.append("'").append(value.toString()).append("'");
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<B> future2 = executor.submit(() -> {
+                PRIMARY_KEYS.set(primaryKeys);
+                COMPARE_COLUMNS.set(compareColumns);
+                try {
+                    return side2.call();
+                } finally {
+                    PRIMARY_KEYS.remove();
+                    COMPARE_COLUMNS.remove();
+                }
+            });
+
+            A result1;
+            try {
+                result1 = side1.call();
+            } catch (SQLException | RuntimeException e) {
+                try {
+                    awaitServer(future2);
+                } catch (SQLException e2) {
+                    e.addSuppressed(e2);
+                }
+                throw e;
             }
-            first = false;
+            return new ImmutablePair<>(result1, awaitServer(future2));
+        } finally {
+            executor.shutdown();
         }
-
-        return String.format("INSERT INTO %s (%s) VALUES (%s)",
-                tableName, columns.toString(), values.toString());
     }
 
-    /**
-     * 根据主键构建WHERE子句
-     */
-    private static void buildWhereClauseFromPrimaryKeys(Map<String, Object> rowData, StringBuilder whereClause) {
-        boolean first = true;
-        for (String pk : PRIMARY_KEYS) {
-            if (!first) {
-                whereClause.append(" AND ");
+    private static <T> T awaitServer(Future<T> future) throws SQLException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("等待另一台服务器的查询时被中断", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof SQLException sqlException) {
+                throw sqlException;
             }
-            Object pkValue = rowData.get(pk);
-            whereClause.append(pk).append(" = ");
-            if (pkValue == null) {
-                whereClause.append("NULL");
-            } else {
-                whereClause.append("'").append(pkValue.toString()).append("'");
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
             }
-            first = false;
+            throw new SQLException("另一台服务器的查询失败", e.getCause());
         }
     }
 
+    private static final SpanData EMPTY_SPAN = new SpanData(List.of(), Set.of());
+
+    /**
+     * 明细比较读取的来源
+     * @param table 比较表（库名.表名），直接读源表时为null
+     * @param directQuery 直接读源表时的DIRECT_SOURCE，其中的%s是主键区间条件
+     * @param ranges 直接读源表时读取的主键区间
+     */
+    private record CompareSource(String table, String directQuery, List<KeyRange> ranges) {
 
-    private static List<Map<String, Object>> getRowSpan(String tableName, Set<String> extraSpans, Connection conn) {
-        List<Map<String, Object>> resultList = new ArrayList<>();
-        List<String[]> allPkValues = new ArrayList<>();
+        static CompareSource table(String table) {
+            return new CompareSource(table, null, null);
+        }
 
-        try {
-            String cateLog = conn.getCatalog();
-            String compareTable = "compare_"+tableName;
-            // 收集所有主键值
-            for (String span : extraSpans) {
-                String diffQuery = String.format(DIFF_COMPARE, cateLog, compareTable, span);
-                try(PreparedStatement statement = conn.prepareStatement(diffQuery);
-                    ResultSet spanResultSet = statement.executeQuery();) {
-                    while (spanResultSet.next()) {
-                        String[] pkValues = new String[PRIMARY_KEYS.size()];
-                        for (int i = 0; i < PRIMARY_KEYS.size(); i++) {
-                            pkValues[i] = spanResultSet.getString(4 + i);
+        static CompareSource direct(String directQuery, List<KeyRange> ranges) {
+            return new CompareSource(null, directQuery, ranges);
+        }
+    }
+
+    /**
+     * 取回多个span的比较行
+     * 返回的Map以span的十六进制字符串（与HEX()的结果相同）为键，没有行的span不在其中
+     */
+    private static Map<String, SpanData> fetchSpanRows(Connection conn, CompareSource source,
+                                                       Collection<String> spans, int batchSize) throws SQLException {
+        return source.table() != null ? fetchTableSpanRows(conn, source.table(), spans, batchSize)
+                : fetchDirectSpanRows(conn, source, spans, batchSize);
+    }
+
+    /**
+     * 从比较表分批取回，每批一条带IN列表的DIFF_COMPARE_BATCH查询，通过span_key索引只读取这些span的行。
+     * 结果按span、pk_hash排序，读取时span变化就开始新的一组，一遍就能按span分好组
+     */
+    private static Map<String, SpanData> fetchTableSpanRows(Connection conn, String compareTable,
+                                                            Collection<String> spans, int batchSize) throws SQLException {
+        Map<String, SpanData> spanRows = new HashMap<>();
+        List<String> sortedSpans = new ArrayList<>(spans);
+        Collections.sort(sortedSpans);
+        int pkCount = PRIMARY_KEYS.get().size();
+
+        for (int from = 0; from < sortedSpans.size(); from += batchSize) {
+            List<String> batch = sortedSpans.subList(from, Math.min(from + batchSize, sortedSpans.size()));
+            String inList = String.join(", ", Collections.nCopies(batch.size(), "UNHEX(?)"));
+            try (PreparedStatement statement = StreamingReads.prepare(conn, String.format(DIFF_COMPARE_BATCH, compareTable, inList))) {
+                for (int i = 0; i < batch.size(); i++) {
+                    statement.setString(i + 1, batch.get(i));
+                }
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    byte[] currentSpan = null;
+                    SpanData current = null;
+                    while (resultSet.next()) {
+                        byte[] span = resultSet.getBytes(3);
+                        if (current == null || !Arrays.equals(span, currentSpan)) {
+                            currentSpan = span;
+                            current = new SpanData(new ArrayList<>(), new HashSet<>());
+                            spanRows.put(HEX.formatHex(span), current);
                         }
-                        allPkValues.add(pkValues);
+                        RowSignature signature = readSignature(resultSet, pkCount);
+                        current.getRowData().add(signature);
+                        current.getSignatures().add(signature);
                     }
                 }
             }
+        }
+        return spanRows;
+    }
 
-            // 使用收集到的主键值查询原始表
-            for (String[] pkValues : allPkValues) {
-                StringBuilder whereClause = new StringBuilder();
-                for (int i = 0; i < PRIMARY_KEYS.size(); i++) {
-                    if (i > 0) {
-                        whereClause.append(" AND ");
+    /**
+     * 直接在源表上现算比较列，每个主键区间只读一遍。
+     * 派生表上的span条件不能走索引，每条查询都要对整个区间计算摘要，所以不再按span分批：
+     * 差异span不超过batchSize时在同一条查询中按span过滤，否则流式读取整个区间，在客户端丢弃其他span的行
+     */
+    private static Map<String, SpanData> fetchDirectSpanRows(Connection conn, CompareSource source,
+                                                             Collection<String> spans, int batchSize) throws SQLException {
+        Map<String, SpanData> spanRows = new HashMap<>();
+        List<String> pkColumns = PRIMARY_KEYS.get();
+        boolean filterOnServer = spans.size() <= batchSize;
+        Set<String> wanted = new HashSet<>(spans);
+        List<String> spanList = new ArrayList<>(spans);
+
+        for (KeyRange range : source.ranges()) {
+            String sql = String.format(source.directQuery(), range.condition(pkColumns));
+            if (filterOnServer) {
+                sql = String.format(DIRECT_SPAN_FILTER, sql, String.join(", ", Collections.nCopies(spanList.size(), "UNHEX(?)")));
+            }
+            try (PreparedStatement statement = StreamingReads.prepare(conn, sql)) {
+                int index = range.bind(statement, 1, null);
+                if (filterOnServer) {
+                    for (String span : spanList) {
+                        statement.setString(index++, span);
                     }
-                    whereClause.append(PRIMARY_KEYS.get(i))
-                            .append(" = '")
-                            .append(pkValues[i])
-                            .append("'");
                 }
-
-                String originalQuery = String.format(QUERY_COMPARE_SPAN,
-                        "test3",
-                        tableName,
-                        whereClause.toString());
-
-                try(PreparedStatement statement = conn.prepareStatement(originalQuery);
-                    ResultSet originalResultSet = statement.executeQuery();){
-                    if (originalResultSet.next()) {
-                        Map<String, Object> rowData = convertResultSetToMap(originalResultSet);
-                        resultList.add(rowData);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        String span = HEX.formatHex(resultSet.getBytes(3));
+                        if (!wanted.contains(span)) {
+                            continue;
+                        }
+                        RowSignature signature = readSignature(resultSet, pkColumns.size());
+                        SpanData spanData = spanRows.computeIfAbsent(span, key -> new SpanData(new ArrayList<>(), new HashSet<>()));
+                        spanData.getRowData().add(signature);
+                        spanData.getSignatures().add(signature);
                     }
                 }
             }
-
-        } catch (SQLException e) {
-            throw new RuntimeException("查询额外行数据失败: " + e.getMessage(), e);
         }
-
-        return resultList;
+        return spanRows;
     }
 
-    // 将结果转成map
-    private static Map<String, Object> convertResultSetToMap(ResultSet rs) throws SQLException {
-        Map<String, Object> rowData = new HashMap<>();
-        ResultSetMetaData metaData = rs.getMetaData();
-        int columnCount = metaData.getColumnCount();
-
-        for (int i = 1; i <= columnCount; i++) {
-            rowData.put(metaData.getColumnName(i), rs.getObject(i));
+    /**
+     * 读取比较行：compare_sign、pk_hash、span和主键列，与比较表的列顺序相同
+     */
+    private static RowSignature readSignature(ResultSet resultSet, int pkCount) throws SQLException {
+        String[] pkValues = new String[pkCount];
+        for (int i = 0; i < pkCount; i++) {
+            pkValues[i] = resultSet.getString(4 + i);
         }
-
-        return rowData;
+        return new RowSignature(
+                Signature128.of(resultSet.getBytes(1)),  // compare_sign
+                Signature128.of(resultSet.getBytes(2)),  // pk_hash
+                pkValues
+        );
     }
 
     // 可有可无
@@ -1037,73 +1284,177 @@ public class dbCompareUtils {
         return difference;
     }
 
-    private static Set<String> extractPkHashes(Set<RowSignature> diffRows) {
-        Set<String> pkHashes = new HashSet<>();
+    private static Set<Signature128> extractPkHashes(Set<RowSignature> diffRows) {
+        Set<Signature128> pkHashes = new HashSet<>();
         for (RowSignature signature : diffRows) {
             pkHashes.add(signature.getPkHash());
         }
         return pkHashes;
     }
 
-    private static List<String[]> makeSumRows(Connection conn, String dbName, String compareTblName, String tableName) throws SQLException {
-
+    /**
+     * 填充比较表（由setupCompare按同一个span位数创建）并按span汇总
+     */
+    private static List<HashSummaryTable> makeSumRows(Connection conn, String dbName, String compareTblName, String tableName,
+                                              RowHasher rowHasher, int spanKeySize, long chunkRows,
+                                              List<KeyRange> ranges) throws SQLException {
 
-        String pkDef = buildIndexDefinition();
+        fillCompareTable(conn, dbName, compareTblName, tableName, rowHasher, spanKeySize, chunkRows, ranges);
 
-        String tempSql = String.format(COMPARE_TABLE,
-                dbName,
-                compareTblName,
-                DEFAULT_SPAN_KEY_SIZE/2,
-                pkDef);
+        String tempSql = String.format(SUM_TABLE, dbName, compareTblName);
 
-        try(PreparedStatement statement = conn.prepareStatement(tempSql);){
-            statement.executeQuery();
+        try (PreparedStatement statement = StreamingReads.prepare(conn, tempSql)) {
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return SpanSummaries.read(resultSet);
+            }
         }
+    }
+
+    /**
+     * 计算每一行的compare_sign、pk_hash和span，写入比较表
+     * 比较表是会话级的临时表，只能在这个连接上填充，所以按主键区间依次执行，
+     * 每条语句只持有一个区间的快照
+     */
+    private static void fillCompareTable(Connection conn, String dbName, String compareTblName, String tableName,
+                                         RowHasher rowHasher, int spanKeySize, long chunkRows,
+                                         List<KeyRange> ranges) throws SQLException {
+
+        String pkStr = String.join(",",PRIMARY_KEYS.get());
 
-        String pkStr = String.join(",",PRIMARY_KEYS);
+        String colStr = String.join(",",COMPARE_COLUMNS.get());
 
-        String colStr = String.join(",",COMPARE_COLUMNS);
+        String hashFunction = rowHasher.sqlFunction();
 
-        tempSql = String.format(INSERT_TABLE,
+        String tempSql = String.format(INSERT_TABLE,
                 dbName,
                 compareTblName,
                 pkStr,
+                hashFunction,
                 colStr,
+                hashFunction,
                 pkStr,
+                hashFunction,
                 pkStr,
-                DEFAULT_SPAN_KEY_SIZE,
+                spanKeySize,
                 pkStr,
                 dbName,
-                tableName);
+                tableName,
+                "%s");
+
+        for (KeyRange range : rangesFor(conn, dbName, tableName, chunkRows, ranges)) {
+            try(PreparedStatement statement = conn.prepareStatement(
+                    String.format(tempSql, range.condition(PRIMARY_KEYS.get())));){
+                range.bind(statement, 1, null);
+                statement.executeUpdate();
+            }
+        }
+    }
+
+
+    /**
+     * 要处理的主键区间：按区间校验后两边使用同样的不一致区间，否则各自抽样切分整张表
+     */
+    private static List<KeyRange> rangesFor(Connection conn, String dbName, String tableName, long chunkRows,
+                                            List<KeyRange> ranges) throws SQLException {
+        return ranges != null ? ranges : ChunkPlanner.plan(conn, dbName + "." + tableName, PRIMARY_KEYS.get(), chunkRows);
+    }
 
-        try(PreparedStatement statement = conn.prepareStatement(tempSql);){
-            statement.executeQuery();
+    /**
+     * 按主键区间计算两边的校验和，返回不一致的区间
+     * 区间按表1抽样切分，两边使用同样的边界；参与校验的列以表1为准
+     */
+    private static List<KeyRange> chunkChecksum(Connection db1Conn, String obj1, Connection db2Conn, String obj2,
+                                                long chunkRows) throws SQLException {
+        List<String> pkColumns = new ArrayList<>();
+        List<String> columns = new ArrayList<>();
+        DatabaseMetaData dbMetaData = db1Conn.getMetaData();
+        try (ResultSet set = dbMetaData.getPrimaryKeys(db1Conn.getCatalog(), db1Conn.getSchema(), obj1)) {
+            while (set.next()) {
+                pkColumns.add(set.getString("COLUMN_NAME"));
+            }
+        }
+        try (ResultSet set = dbMetaData.getColumns(db1Conn.getCatalog(), db1Conn.getSchema(), obj1, null)) {
+            while (set.next()) {
+                columns.add(set.getString("COLUMN_NAME"));
+            }
         }
 
-        tempSql = String.format(SUM_TABLE, dbName, compareTblName);
+        String table1 = db1Conn.getCatalog() + "." + obj1;
+        String table2 = db2Conn.getCatalog() + "." + obj2;
+        List<KeyRange> ranges = ChunkPlanner.plan(db1Conn, table1, pkColumns, chunkRows);
+        ImmutablePair<List<RangeChecksum.Checksum>, List<RangeChecksum.Checksum>> checksums = onBothServers(
+                () -> RangeChecksum.compute(db1Conn, table1, columns, pkColumns, ranges),
+                () -> RangeChecksum.compute(db2Conn, table2, columns, pkColumns, ranges));
+        return RangeChecksum.failing(ranges, checksums.getLeft(), checksums.getRight());
+    }
 
-        try (PreparedStatement statement = conn.prepareStatement(tempSql)) {
-            statement.setFetchSize(1000);
+    /**
+     * 不使用比较表，按主键区间直接在源表上GROUP BY汇总，再把各区间同一个span的汇总相加
+     */
+    private static List<HashSummaryTable> directSumRows(Connection conn, String dbName, String tableName,
+                                                        RowHasher rowHasher, int spanKeySize, long chunkRows,
+                                                        List<KeyRange> ranges) throws SQLException {
 
-            try (ResultSet resultSet = statement.executeQuery()) {
-                List<String[]> objectList = new ArrayList<>();
+        String pkStr = String.join(",",PRIMARY_KEYS.get());
 
-                while (resultSet.next()) {
-                    String[] objects = new String[3];
-                    for (int i = 0; i < 3; i++) {
-                        objects[i] = resultSet.getString(i + 1);
-                    }
-                    objectList.add(objects);
-                }
+        String colStr = String.join(",",COMPARE_COLUMNS.get());
 
-                return objectList;
+        String hashFunction = rowHasher.sqlFunction();
+
+        String tempSql = String.format(DIRECT_SUM_TABLE,
+                hashFunction,
+                pkStr,
+                spanKeySize,
+                hashFunction,
+                colStr,
+                dbName,
+                tableName,
+                "%s");
+
+        List<List<HashSummaryTable>> parts = new ArrayList<>();
+        for (KeyRange range : rangesFor(conn, dbName, tableName, chunkRows, ranges)) {
+            try(PreparedStatement statement = StreamingReads.prepare(conn,
+                    String.format(tempSql, range.condition(PRIMARY_KEYS.get())));){
+                range.bind(statement, 1, null);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    parts.add(SpanSummaries.read(resultSet));
+                }
             }
         }
+        return SpanSummaries.merge(parts);
+    }
+
+    /**
+     * 不使用比较表时明细比较的来源：在源表上现算compare_sign、pk_hash和span的查询，保留%s作为主键区间条件
+     */
+    private static String directSource(String dbName, String tableName, RowHasher rowHasher, int spanKeySize) {
+        String pkStr = String.join(",",PRIMARY_KEYS.get());
+
+        String colStr = String.join(",",COMPARE_COLUMNS.get());
+
+        String hashFunction = rowHasher.sqlFunction();
+
+        return String.format(DIRECT_SOURCE,
+                hashFunction,
+                colStr,
+                hashFunction,
+                pkStr,
+                hashFunction,
+                pkStr,
+                spanKeySize,
+                pkStr,
+                dbName,
+                tableName,
+                "%s").strip();
     }
 
 
     // 这里不还原，python的table对象可以反找server对象，我这里需要传连接对象
-    private static void setupCompare(Connection conn1, Connection conn2, String table1, String table2, int spanKeySize, List<String> useIndexes) throws SQLException {
+    private static void setupCompare(Connection conn1, Connection conn2, String table1, String table2, int spanKeySize,
+                                     List<String> useIndexes, boolean useCompareTable) throws SQLException {
+
+        PRIMARY_KEYS.get().clear();
+        COMPARE_COLUMNS.get().clear();
 
         List<String> diagMsgs =  new ArrayList<>();
         DatabaseMetaData dbMetaData1 = conn1.getMetaData();
@@ -1114,7 +1465,7 @@ public class dbCompareUtils {
             while (set1.next()){
                 String pk1 = set1.getString("COLUMN_NAME");
 
-                PRIMARY_KEYS.add(pk1);
+                PRIMARY_KEYS.get().add(pk1);
                 // 两张表主键不相同
                 if(set2.next()){
                     if(!set1.getString("COLUMN_NAME").equals(pk1)){
@@ -1129,6 +1480,21 @@ public class dbCompareUtils {
             throw new RuntimeException("Indexes are not the same");
         }
 
+        // 参与比较的列，以表1为准
+        try(ResultSet columns = dbMetaData1.getColumns(conn1.getCatalog(), conn1.getSchema(), table1, null)){
+            while (columns.next()){
+                COMPARE_COLUMNS.get().add(columns.getString("COLUMN_NAME"));
+            }
+        }
+
+        if(!useCompareTable){
+            return;
+        }
+
+        // 临时表跟着会话走，连接归还时断开，不留在池中的连接上
+        PooledDataSource.markSessionChanged(conn1);
+        PooledDataSource.markSessionChanged(conn2);
+
         // 丢弃旧的临时表
         dropCompareObject(conn1,table1);
         dropCompareObject(conn2,table2);
@@ -1138,13 +1504,13 @@ public class dbCompareUtils {
                 conn1.getCatalog(),
                 String.format(COMPARE_TABLE_NAME,table1),
                 spanKeySize / 2,
-                buildIndexDefinition());
+                buildIndexDefinition(conn1, conn1.getCatalog(), table1, PRIMARY_KEYS.get()));
 
         String tbl2Table = String.format(COMPARE_TABLE,
                 conn2.getCatalog(),
                 String.format(COMPARE_TABLE_NAME,table2),
                 spanKeySize / 2,
-                buildIndexDefinition());
+                buildIndexDefinition(conn2, conn2.getCatalog(), table2, PRIMARY_KEYS.get()));
 
 
         boolean mustToggle1 = !conn1.getAutoCommit();
@@ -1157,8 +1523,8 @@ public class dbCompareUtils {
         try(PreparedStatement statement1 = conn1.prepareStatement(tbl1Table);
             PreparedStatement statement2 = conn2.prepareStatement(tbl2Table);
         ){
-            statement1.executeQuery();
-            statement2.executeQuery();
+            statement1.executeUpdate();
+            statement2.executeUpdate();
         }
 
         if(mustToggle1) conn1.setAutoCommit(false);
@@ -1166,12 +1532,36 @@ public class dbCompareUtils {
 
     }
 
-    private static String buildIndexDefinition() {
+    /**
+     * 比较表中主键列的定义，类型、字符集和排序规则与原表的列相同。
+     * 原来都定义成VARCHAR(255)，整数主键也按字符串保存和比较，比较表和span_key索引都大很多
+     */
+    static String buildIndexDefinition(Connection conn, String dbName, String tableName, List<String> primaryKeys) throws SQLException {
+        Map<String, String> columnTypes = new HashMap<>();
+        try (PreparedStatement statement = conn.prepareStatement(PK_COLUMN_TYPES)) {
+            statement.setString(1, dbName);
+            statement.setString(2, tableName);
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    StringBuilder type = new StringBuilder(rs.getString("COLUMN_TYPE"));
+                    if (rs.getString("CHARACTER_SET_NAME") != null) {
+                        type.append(" CHARACTER SET ").append(rs.getString("CHARACTER_SET_NAME"))
+                                .append(" COLLATE ").append(rs.getString("COLLATION_NAME"));
+                    }
+                    columnTypes.put(rs.getString("COLUMN_NAME").toLowerCase(), type.toString());
+                }
+            }
+        }
+
         StringBuilder indexDefn = new StringBuilder();
 
-        for (String primaryKey : PRIMARY_KEYS) {
+        for (String primaryKey : primaryKeys) {
+            String type = columnTypes.get(primaryKey.toLowerCase());
+            if (type == null) {
+                throw new SQLException(String.format("Primary key column %s was not found in %s.%s", primaryKey, dbName, tableName));
+            }
             indexDefn.append(primaryKey)
-                    .append(" VARCHAR(255), ");
+                    .append(' ').append(type).append(" NOT NULL, ");
         }
 
         // 移除最后的逗号和空格
@@ -1191,7 +1581,7 @@ public class dbCompareUtils {
             String tTable = String.format(COMPARE_TABLE_NAME,table);
 
             try(PreparedStatement statement = conn.prepareStatement(String.format(COMPARE_TABLE_DROP,conn.getCatalog(),tTable))){
-                statement.executeQuery();
+                statement.executeUpdate();
             }
 
             if(toggleServer){
@@ -1232,11 +1622,22 @@ public class dbCompareUtils {
         }
     }
 
+    /**
+     * 当前会话的写入是否记录binlog，disableBinlog之后为false
+     */
+    public static boolean isSessionBinlogEnabled(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT @@SESSION.sql_log_bin")) {
+            return rs.next() && rs.getInt(1) == 1;
+        }
+    }
+
     public static void disableBinlog(Connection conn) throws SQLException {
         try (Statement stmt = conn.createStatement()) {
             // 提交当前事务以避免在事务中设置 sql_log_bin 的错误
             conn.rollback(); // 或 conn.commit()
-            // 关闭二进制日志
+            // 关闭二进制日志，连接归还时断开，sql_log_bin = 0不会留给下一个借用者
+            PooledDataSource.markSessionChanged(conn);
             stmt.execute("SET sql_log_bin = 0");
         }
     }
@@ -1244,7 +1645,8 @@ public class dbCompareUtils {
     @Getter
     @Setter
     public static class DiffServer{
-        private List<String> first;
-        private List<String> second;
+        // 只保留差异的条数和输出文件，差异和修复语句本身已经写出
+        private DiffSink.Summary first;
+        private DiffSink.Summary second;
     }
 }
@@ -0,0 +1,36 @@
+package cn.info.verify;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class Murmur3RowHasherTest {
+
+    private final RowHasher hasher = RowHasher.murmur3();
+
+    @Test
+    void matchesPublishedVectors() {
+        // MurmurHash3_x64_128，seed为0，h1、h2与参考实现（smhasher、Guava）一致
+        assertEquals(new Signature128(0L, 0L), hash(""));
+        assertEquals(new Signature128(0x629942693e10f867L, 0x92db0b82baeb5347L), hash("hell"));
+        assertEquals(new Signature128(0xe34bbc7bbc071b6cL, 0x7a433ca9c49a9347L),
+                hash("The quick brown fox jumps over the lazy dog"));
+        assertEquals(new Signature128(0x658ca970ff85269aL, 0x43fee3eaa68e5c3eL),
+                hash("The quick brown fox jumps over the lazy cog"));
+    }
+
+    @Test
+    void hashesOnlyTheGivenSlice() {
+        // RowEncoder复用缓冲区，只有前length个字节是当前行
+        byte[] row = "The quick brown fox jumps over the lazy dog".getBytes(StandardCharsets.UTF_8);
+        byte[] buffer = new byte[row.length + 7];
+        System.arraycopy(row, 0, buffer, 3, row.length);
+        assertEquals(hasher.hash(row), hasher.hash(buffer, 3, row.length));
+    }
+
+    private Signature128 hash(String input) {
+        return hasher.hash(input.getBytes(StandardCharsets.UTF_8));
+    }
+}
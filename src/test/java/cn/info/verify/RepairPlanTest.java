@@ -0,0 +1,148 @@
+package cn.info.verify;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RepairPlanTest {
+
+    @TempDir
+    Path dir;
+
+    private final List<String> executed = new ArrayList<>();
+    private String failOn;
+
+    @Test
+    void resumesAfterTheLastCommittedChunk() throws Exception {
+        Path plan = writePlan(10, 3);
+
+        // 第3块（语句7-9）执行到语句8时失败，前两块已经提交
+        failOn = delete(8);
+        assertThrows(SQLException.class, () -> RepairPlan.replay(connection(), plan, null));
+        assertEquals("2", Files.readString(RepairPlan.checkpointPath(plan)).split(" ")[0]);
+
+        failOn = null;
+        executed.clear();
+        RepairPlan.Replay replay = RepairPlan.replay(connection(), plan, null);
+        assertEquals(new RepairPlan.Replay(2, 2, 4, 4), replay);
+        assertEquals(List.of(delete(7), delete(8), delete(9), delete(10)), executed);
+
+        // 全部提交后再执行一次，所有块都跳过
+        executed.clear();
+        assertEquals(new RepairPlan.Replay(0, 4, 0, 4), RepairPlan.replay(connection(), plan, null));
+        assertEquals(List.of(), executed);
+    }
+
+    @Test
+    void refusesPlanWithoutTrailer() throws Exception {
+        // 生成中途失败：没有调用finish就关闭
+        Path plan = dir.resolve("partial" + RepairPlan.SUFFIX);
+        try (RepairPlan.Writer writer = RepairPlan.create(plan, 2)) {
+            for (int i = 1; i <= 5; i++) {
+                writer.append(delete(i));
+            }
+        }
+
+        assertThrows(IOException.class, () -> RepairPlan.replay(connection(), plan, null));
+        assertEquals(List.of(), executed);
+    }
+
+    @Test
+    void refusesTruncatedPlan() throws Exception {
+        Path plan = writePlan(6, 2);
+        byte[] bytes = Files.readAllBytes(plan);
+        Files.write(plan, Arrays.copyOf(bytes, bytes.length - 20));
+
+        assertThrows(IOException.class, () -> RepairPlan.replay(connection(), plan, null));
+        assertEquals(List.of(), executed);
+
+        // 读取时不完整的最后一块被忽略，计划也不算完整
+        try (RepairPlan.Reader reader = new RepairPlan.Reader(plan)) {
+            int chunks = 0;
+            while (reader.next() != null) {
+                chunks++;
+            }
+            assertEquals(2, chunks);
+            assertFalse(reader.isComplete());
+        }
+    }
+
+    @Test
+    void rejectsCorruptedChunk() throws Exception {
+        Path plan = writePlan(6, 2);
+        Files.writeString(plan, Files.readString(plan).replace(delete(3), delete(9)));
+
+        IOException e = assertThrows(IOException.class, () -> RepairPlan.replay(connection(), plan, null));
+        assertTrue(e.getMessage().contains("CRC"));
+        // 第2块之前的块照常执行
+        assertEquals(List.of(delete(1), delete(2)), executed);
+    }
+
+    @Test
+    void rejectsCheckpointOfAnotherPlan() throws Exception {
+        Path plan = writePlan(6, 2);
+        Files.writeString(RepairPlan.checkpointPath(plan), "2 00000000\n", StandardCharsets.UTF_8);
+
+        assertThrows(IOException.class, () -> RepairPlan.replay(connection(), plan, null));
+        assertEquals(List.of(), executed);
+    }
+
+    private Path writePlan(int statements, int chunkStatements) throws IOException {
+        Path plan = dir.resolve("db.t.server1" + RepairPlan.SUFFIX);
+        try (RepairPlan.Writer writer = RepairPlan.create(plan, chunkStatements)) {
+            for (int i = 1; i <= statements; i++) {
+                writer.append(delete(i));
+            }
+            writer.finish();
+        }
+        return plan;
+    }
+
+    private static String delete(int id) {
+        return "DELETE FROM t WHERE id IN (" + id + ");";
+    }
+
+    /**
+     * 只记录执行的语句，执行到failOn时抛出SQLException；回滚不撤销已记录的语句，用提交前的失败来模拟中断
+     */
+    private Connection connection() {
+        Statement statement = (Statement) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{Statement.class},
+                (proxy, method, args) -> {
+                    if ("execute".equals(method.getName())) {
+                        if (args[0].equals(failOn)) {
+                            throw new SQLException("injected failure");
+                        }
+                        executed.add((String) args[0]);
+                        return false;
+                    }
+                    return null;
+                });
+        boolean[] autoCommit = {true};
+        return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{Connection.class},
+                (proxy, method, args) -> switch (method.getName()) {
+                    case "createStatement" -> statement;
+                    case "getAutoCommit" -> autoCommit[0];
+                    case "setAutoCommit" -> {
+                        autoCommit[0] = (boolean) args[0];
+                        yield null;
+                    }
+                    default -> null;
+                });
+    }
+}
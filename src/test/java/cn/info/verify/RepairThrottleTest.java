@@ -0,0 +1,49 @@
+package cn.info.verify;
+
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class RepairThrottleTest {
+
+    @Test
+    void adjustsBatchSizeAndPausesOnLag() throws SQLException {
+        // 低延迟两次、中间延迟一次、超过上限后暂停两轮才恢复
+        StubLagProbe probe = new StubLagProbe(0L, 500L, 5_000L, 12_000L, 8_000L, 3_000L, 1_000L);
+        List<Long> sleeps = new ArrayList<>();
+        RepairThrottle throttle = new RepairThrottle(probe, 10_000, 2_000, 50, 150);
+        throttle.setPollMillis(100);
+        throttle.setSleeper(sleeps::add);
+
+        assertEquals(50, throttle.batchSize());
+        throttle.afterBatch();
+        assertEquals(100, throttle.batchSize());
+        throttle.afterBatch();
+        assertEquals(150, throttle.batchSize());
+        throttle.afterBatch();
+        assertEquals(75, throttle.batchSize());
+
+        throttle.afterBatch();
+        assertEquals(50, throttle.batchSize());
+        assertEquals(List.of(100L, 100L, 100L), sleeps);
+        assertEquals(1, throttle.getPauses());
+        assertEquals(300, throttle.getPausedMillis());
+        assertEquals(7, probe.getCalls());
+    }
+
+    @Test
+    void failsWhenLagDoesNotRecover() {
+        RepairThrottle throttle = new RepairThrottle(new StubLagProbe(LagProbe.UNKNOWN), 10_000, 2_000, 50, 1_000);
+        throttle.setPollMillis(100);
+        throttle.setMaxPauseMillis(1_000);
+        throttle.setSleeper(millis -> { });
+
+        assertThrows(SQLException.class, throttle::afterBatch);
+        assertEquals(1_000, throttle.getPausedMillis());
+    }
+}
@@ -0,0 +1,72 @@
+package cn.info.verify;
+
+import org.apache.commons.lang3.tuple.ImmutablePair;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class SpanSummariesTest {
+
+    @Test
+    void equalSummariesFromDifferentReadsAreNotDifferences() {
+        // 两边各自读出的汇总是不同的对象，数值超出Long的缓存范围，必须按值比较
+        List<HashSummaryTable> summaries1 = List.of(summary("0A", 1_000, 4_000_000_000L), summary("1B", 2_000, 5_000_000_000L));
+        List<HashSummaryTable> summaries2 = List.of(summary("0A", 1_000, 4_000_000_000L), summary("1B", 2_000, 5_000_000_000L));
+
+        ImmutablePair<List<String>, List<String>> diff = SpanSummaries.diff(summaries1, summaries2);
+        assertEquals(List.of(), diff.getLeft());
+        assertEquals(List.of(), diff.getRight());
+    }
+
+    @Test
+    void reportsChangedAndOneSidedSpans() {
+        List<HashSummaryTable> summaries1 = List.of(
+                summary("01", 1_000, 10_000L),
+                summary("02", 1_000, 20_000L),
+                summary("05", 1_000, 50_000L),
+                summary("F0", 1_000, 90_000L));
+        List<HashSummaryTable> summaries2 = List.of(
+                summary("02", 1_000, 20_001L),
+                summary("03", 1_000, 30_000L),
+                summary("05", 1_000, 50_000L),
+                summary("F1", 1_000, 90_000L),
+                summary("FF", 1_000, 99_000L));
+
+        ImmutablePair<List<String>, List<String>> diff = SpanSummaries.diff(summaries1, summaries2);
+        // 两边都出现的02是内容变化，其余只在一边
+        assertEquals(List.of("01", "02", "F0"), diff.getLeft());
+        assertEquals(List.of("02", "03", "F1", "FF"), diff.getRight());
+    }
+
+    @Test
+    void emptySideReportsEverySpanOfTheOther() {
+        List<HashSummaryTable> summaries = List.of(summary("01", 1, 1L), summary("02", 1, 2L));
+
+        assertEquals(List.of("01", "02"), SpanSummaries.diff(summaries, List.of()).getLeft());
+        assertEquals(List.of("01", "02"), SpanSummaries.diff(List.of(), summaries).getRight());
+    }
+
+    @Test
+    void mergedPartsMatchTheWholeTable() {
+        List<HashSummaryTable> merged = SpanSummaries.merge(List.of(
+                List.of(summary("01", 600, 6_000L), summary("02", 100, 1_000L)),
+                List.of(summary("01", 400, 4_000L), summary("03", 300, 3_000L))));
+
+        HashSummaryTable span01 = HashSummaryTable.builder()
+                .span("01").count(1_000L).sumPart1(10_000L).sumPart2(10_002L).sumPart3(10_004L).sumPart4(10_006L).build();
+        assertEquals(List.of(span01, summary("02", 100, 1_000L), summary("03", 300, 3_000L)), merged);
+    }
+
+    private static HashSummaryTable summary(String span, long count, long sum) {
+        return HashSummaryTable.builder()
+                .span(span)
+                .count(count)
+                .sumPart1(sum)
+                .sumPart2(sum + 1)
+                .sumPart3(sum + 2)
+                .sumPart4(sum + 3)
+                .build();
+    }
+}
@@ -0,0 +1,32 @@
+package cn.info.verify;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+/**
+ * 按给定顺序返回延迟的探测，用完后一直返回最后一个值，不需要真正的从库
+ */
+class StubLagProbe implements LagProbe {
+
+    private final Deque<Long> lags;
+    private long last = UNKNOWN;
+    private int calls;
+
+    StubLagProbe(Long... lags) {
+        this.lags = new ArrayDeque<>(Arrays.asList(lags));
+    }
+
+    @Override
+    public synchronized long lagMillis() {
+        calls++;
+        if (!lags.isEmpty()) {
+            last = lags.poll();
+        }
+        return last;
+    }
+
+    synchronized int getCalls() {
+        return calls;
+    }
+}
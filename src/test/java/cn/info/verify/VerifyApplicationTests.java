@@ -16,9 +16,9 @@ class VerifyApplicationTests {
 
     @Test
     void contextLoads() {
-        try{
-            Connection conn1 = DriverManager.getConnection("jdbc:mysql://localhost:3306/test1","root","infocore");
-            Connection conn2 = DriverManager.getConnection("jdbc:mysql://localhost:3306/test2","root","infocore");
+        try(PooledDataSource pool = new PooledDataSource(new MyConnection("localhost","3306","root","infocore",null))){
+            Connection conn1 = pool.forDatabase("test1").getConnection();
+            Connection conn2 = pool.forDatabase("test2").getConnection();
 //            Connection conn1 = DriverManager.getConnection("jdbc:mysql://localhost:13307/test1","root","123456");
 //            Connection conn2 = DriverManager.getConnection("jdbc:mysql://localhost:13308/test2","root","123456");
 
@@ -41,11 +41,10 @@ class VerifyApplicationTests {
     @Test
     void dbTest() {
 
-        try(            Connection conn1 = DriverManager.getConnection("jdbc:mysql://localhost:3306/test3","root","infocore");
-                        Connection conn2 = DriverManager.getConnection("jdbc:mysql://localhost:3306/test4","root","infocore"))
+        try(            PooledDataSource pool = new PooledDataSource(new MyConnection("localhost","3306","root","infocore",null));
+                        Connection conn1 = pool.forDatabase("test3").getConnection();
+                        Connection conn2 = pool.forDatabase("test4").getConnection())
         {
-//            MyConnection myConnection1 = new MyConnection("localhost","3306","root","infocore","test3");
-//            MyConnection myConnection2 = new MyConnection("localhost","3306","root","infocore","test4");
             VerifyClient1 verifyClient = new VerifyClient1();
             System.out.println(verifyClient.CompareDb(conn1,conn2,conn1.getCatalog(),conn2.getCatalog()));
             //System.out.println(verifyClient.Verify(conn1,conn2,"user","user"));
@@ -0,0 +1,50 @@
+package cn.info.verify;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class dbCompareUtilsTest {
+
+    @Test
+    void applyRefusesReverse() {
+        Map<String, Object> options = options(dbCompareUtils.REPAIR_APPLY);
+        options.put("reverse", true);
+
+        // 在访问任何连接之前就拒绝，不会修改任何一边
+        assertThrows(IllegalArgumentException.class,
+                () -> dbCompareUtils.checkConsistency(null, null, "t", "t", options, null));
+    }
+
+    @Test
+    void applyRefusesChangesForServer2() {
+        Map<String, Object> options = options(dbCompareUtils.REPAIR_APPLY);
+        options.put("changes-for", "server2");
+
+        assertThrows(IllegalArgumentException.class,
+                () -> dbCompareUtils.checkConsistency(null, null, "t", "t", options, null));
+    }
+
+    @Test
+    void applyAllowsServer1AndPrintAllowsEveryDirection() {
+        Map<String, Object> apply = options(dbCompareUtils.REPAIR_APPLY);
+        apply.put("changes-for", "server1");
+        assertDoesNotThrow(() -> dbCompareUtils.checkRepairDirection(apply));
+        assertDoesNotThrow(() -> dbCompareUtils.checkRepairDirection(options(dbCompareUtils.REPAIR_APPLY)));
+
+        Map<String, Object> print = options(dbCompareUtils.REPAIR_PRINT);
+        print.put("changes-for", "server2");
+        print.put("reverse", true);
+        assertDoesNotThrow(() -> dbCompareUtils.checkRepairDirection(print));
+    }
+
+    private static Map<String, Object> options(String repairMode) {
+        Map<String, Object> options = new HashMap<>();
+        options.put("repair_mode", repairMode);
+        return options;
+    }
+}